@@ -0,0 +1,90 @@
+package searchengine.index;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.roaringbitmap.RoaringBitmap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Расчёт релевантности: ранжированное пересечение трёх списков страниц разной длины
+ * с BM25 и поправкой за близость, как в запросе из трёх лемм к индексу в памяти.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelevanceBenchmark {
+
+    private static final int PAGE_COUNT = 100_000;
+    private static final int[] LIST_SIZES = {50_000, 20_000, 5_000};
+
+    @Param({"false", "true"})
+    public boolean exactCount;
+
+    @Param({"false", "true"})
+    public boolean proximity;
+
+    private PostingList[] lists;
+    private float[] idf;
+    private float[] pageLengths;
+    private float averageLength;
+    private Bm25 bm25;
+    private PositionScorer scorer;
+    private final RoaringBitmap excluded = new RoaringBitmap();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        pageLengths = new float[PAGE_COUNT];
+        float total = 0;
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            pageLengths[i] = 100 + random.nextInt(2000);
+            total += pageLengths[i];
+        }
+        averageLength = total / PAGE_COUNT;
+        bm25 = new Bm25(1.2f, 0.75f);
+        lists = new PostingList[LIST_SIZES.length];
+        idf = new float[LIST_SIZES.length];
+        for (int list = 0; list < LIST_SIZES.length; list++) {
+            int size = LIST_SIZES[list];
+            int[] pageIds = random.ints(0, PAGE_COUNT).distinct().limit(size).sorted().toArray();
+            float[] rates = new float[size];
+            byte[][] positions = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                int count = 1 + random.nextInt(8);
+                rates[i] = count;
+                int[] pagePositions = new int[count];
+                int position = 0;
+                for (int p = 0; p < count; p++) {
+                    position += 1 + random.nextInt(50);
+                    pagePositions[p] = position;
+                }
+                positions[i] = Positions.encode(pagePositions, count);
+            }
+            lists[list] = PostingList.of(pageIds, rates, positions, size);
+            idf[list] = bm25.idf(size, PAGE_COUNT);
+        }
+        scorer = proximity ? PositionScorer.of(List.of("a", "b", "c"), List.of(), 0.5f) : PositionScorer.NONE;
+    }
+
+    @Benchmark
+    public TopHits collect() {
+        TopKCollector collector = new TopKCollector(10);
+        RankedConjunction.collect(lists, idf, pageLengths, averageLength, bm25, exactCount, scorer, excluded,
+                Deadline.NONE, collector);
+        return collector.topHits();
+    }
+}
@@ -0,0 +1,74 @@
+package searchengine.services;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import searchengine.model.SiteEntity;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка ссылок при обходе сайта: все ссылки обеих страниц из fixtures
+ * за одну операцию, среди них есть внешние, якорные и ссылки на файлы.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LinkValidationBenchmark {
+
+    private static final String SITE_URL = "https://example.com";
+
+    private PageSearcher searcher;
+    private String[] links;
+
+    @Setup
+    public void setUp() throws IOException {
+        new LinksStorage();
+        SiteEntity site = new SiteEntity();
+        site.setUrl(SITE_URL);
+        searcher = new PageSearcher(SITE_URL + "/", null, site, null, null);
+        List<String> found = new ArrayList<>();
+        for (String corpus : List.of("ru", "en")) {
+            try (InputStream input = LinkValidationBenchmark.class
+                    .getResourceAsStream("/fixtures/" + corpus + ".html")) {
+                if (input == null) {
+                    throw new IOException("Нет страницы fixtures/" + corpus + ".html");
+                }
+                Document document = Jsoup.parse(new String(input.readAllBytes(), StandardCharsets.UTF_8),
+                        SITE_URL + "/articles/search-engine.html");
+                for (Element link : document.select("a[href]")) {
+                    found.add(link.absUrl("href"));
+                }
+            }
+        }
+        links = found.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public int isValid() {
+        int valid = 0;
+        for (String link : links) {
+            if (searcher.isValid(link)) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,85 @@
+package searchengine.services;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обработка текста страницы при индексации и выдаче: очистка HTML, разбиение на слова,
+ * лемматизация и построение сниппета на русской и английской страницах из fixtures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextBenchmark {
+
+    private static final Map<String, String> QUERIES = Map.of(
+            "ru", "поиск страниц по леммам запроса",
+            "en", "ranking pages with query lemmas");
+
+    @Param({"ru", "en"})
+    public String corpus;
+
+    private String html;
+    private String text;
+    private List<String> lemmas;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream input = TextBenchmark.class.getResourceAsStream("/fixtures/" + corpus + ".html")) {
+            if (input == null) {
+                throw new IOException("Нет страницы fixtures/" + corpus + ".html");
+            }
+            html = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        text = PageSearcher.documentClear(Jsoup.parse(html, "https://example.com/"));
+        lemmas = new ArrayList<>(LemmaExtractor.lemmaExtract(QUERIES.get(corpus)).keySet());
+    }
+
+    @Benchmark
+    public String documentClear() {
+        Document document = Jsoup.parse(html, "https://example.com/");
+        return PageSearcher.documentClear(document);
+    }
+
+    @Benchmark
+    public HashSet<String> getWords() {
+        return LemmaExtractor.getWords(text);
+    }
+
+    @Benchmark
+    public Map<String, Integer> lemmaExtract() throws IOException {
+        return LemmaExtractor.lemmaExtract(text);
+    }
+
+    @Benchmark
+    public Map<String, byte[]> lemmaPositions() {
+        return LemmaExtractor.lemmaPositions(text);
+    }
+
+    @Benchmark
+    public String snippet() {
+        return Highlighter.snippet(text, lemmas);
+    }
+}
@@ -0,0 +1,20 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "admission-settings")
+public class AdmissionSettings {
+    private boolean enabled = true;
+    private int searchInitialLimit = 16;
+    private int searchMinLimit = 2;
+    private int searchMaxLimit = 128;
+    private int searchQueueSize = 64;
+    private long searchQueueTimeoutMs = 200;
+    private int indexingLimit = 4;
+}
@@ -0,0 +1,36 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "search-settings")
+public class SearchSettings {
+    private Backend backend = Backend.DATABASE;
+    private String luceneIndexPath = "index/lucene";
+    private boolean postingsCache = true;
+    private String snapshotPath = "index/postings.snapshot";
+    private long resultCacheSize = 10_000;
+    private long snippetCacheSize = 50_000;
+    private double maxLemmaPageShare = 0.8;
+    private float bm25K1 = 1.2f;
+    private float bm25B = 0.75f;
+    private boolean exactTotalHits = true;
+    private boolean fuzzy = true;
+    private int searchThreads = 0;
+    private int searchQueueSize = 256;
+    private long searchTimeoutMs = 1000;
+    private float proximityWeight = 0.5f;
+    private int maxBatchSize = 100;
+    private int maxLimit = 100;
+    private int maxOffset = 10_000;
+
+    public enum Backend {
+        DATABASE,
+        LUCENE
+    }
+}
@@ -12,4 +12,5 @@ import java.util.List;
 @ConfigurationProperties(prefix = "indexing-settings")
 public class SitesList {
     private List<Site> sites;
+    private long stopTimeoutMs = 2000;
 }
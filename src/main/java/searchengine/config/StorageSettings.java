@@ -0,0 +1,43 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage-settings")
+public class StorageSettings {
+    private Compression compression = Compression.DEFLATE;
+    private int compressionLevel = 6;
+    private boolean migrateContent = false;
+    private int migrationBatchSize = 200;
+
+    /**
+     * Алгоритм сжатия и его код в заголовке сохранённого значения. Коды записаны
+     * в базе, поэтому их нельзя менять, а новые алгоритмы получают новые коды.
+     */
+    public enum Compression {
+        NONE(0),
+        DEFLATE(1),
+        ZSTD(2);
+
+        @Getter
+        private final byte id;
+
+        Compression(int id) {
+            this.id = (byte) id;
+        }
+
+        public static Compression byId(byte id) {
+            for (Compression compression : values()) {
+                if (compression.id == id) {
+                    return compression;
+                }
+            }
+            throw new IllegalStateException("Неизвестный код алгоритма сжатия: " + id);
+        }
+    }
+}
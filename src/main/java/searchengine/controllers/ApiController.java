@@ -1,26 +1,43 @@
 package searchengine.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import searchengine.dto.objects.SearchBatchRequest;
+import searchengine.dto.objects.SearchQueryDto;
+import searchengine.dto.statistics.AdmissionStatistics;
+import searchengine.dto.statistics.SearchCacheStatistics;
 import searchengine.dto.statistics.StatisticsResponse;
-import searchengine.repository.IndexRepository;
-import searchengine.repository.LemmaRepository;
-import searchengine.repository.PageRepository;
-import searchengine.repository.SearchDataRepository;
+import searchengine.index.Deadline;
 import searchengine.responses.ApplicationErrorException;
+import searchengine.responses.OverloadedException;
+import searchengine.responses.SearchBatchResult;
+import searchengine.responses.SearchStreamWriter;
 import searchengine.responses.StatusIndexingResponse;
+import searchengine.responses.SuggestResult;
 import searchengine.model.Status;
+import searchengine.config.SearchSettings;
+import searchengine.services.AdmissionService;
+import searchengine.services.ConcurrencyLimiter;
 import searchengine.services.IndexingService;
 import searchengine.services.PageSearcher;
+import searchengine.services.SearchResultCache;
 import searchengine.services.SearchService;
 import searchengine.services.StatisticsService;
+import searchengine.services.SuggestService;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 
 @RestController
 @RequestMapping("/api")
 @Data
+@Slf4j
 public class ApiController {
 
     @ExceptionHandler(ApplicationErrorException.class)
@@ -28,22 +45,34 @@ public class ApiController {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(r.getMessage());
     }
 
+    @ExceptionHandler(OverloadedException.class)
+    public ResponseEntity<StatusIndexingResponse> handlerOverloadedException(OverloadedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()))
+                .body(new StatusIndexingResponse(false, e.getMessage()));
+    }
+
     private final StatisticsService statisticsService;
     private final IndexingService indexingService;
-    private final LemmaRepository lemmaRepository;
-    private final PageRepository pageRepository;
-    private final IndexRepository indexRepository;
-    private final SearchDataRepository searchDataRepository;
+    private final SearchService searchService;
+    private final SearchResultCache searchResultCache;
+    private final SuggestService suggestService;
+    private final AdmissionService admissionService;
+    private final SearchSettings searchSettings;
+    private final ObjectMapper objectMapper;
 
     public ApiController(StatisticsService statisticsService, IndexingService indexingService,
-                         LemmaRepository lemmaRepository, PageRepository pageRepository,
-                         IndexRepository indexRepository, SearchDataRepository searchDataRepository) {
+                         SearchService searchService, SearchResultCache searchResultCache,
+                         SuggestService suggestService, AdmissionService admissionService,
+                         SearchSettings searchSettings, ObjectMapper objectMapper) {
         this.statisticsService = statisticsService;
         this.indexingService = indexingService;
-        this.lemmaRepository = lemmaRepository;
-        this.pageRepository = pageRepository;
-        this.indexRepository = indexRepository;
-        this.searchDataRepository = searchDataRepository;
+        this.searchService = searchService;
+        this.searchResultCache = searchResultCache;
+        this.suggestService = suggestService;
+        this.admissionService = admissionService;
+        this.searchSettings = searchSettings;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping("/statistics")
@@ -78,13 +107,18 @@ public class ApiController {
             return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
                     .body(new StatusIndexingResponse(false, "Индексация не запущена"));
         }
+        long millis;
         try {
-            indexingService.stopIndexing();
+            millis = indexingService.stopIndexing();
         } catch (ApplicationErrorException e) {
             throw new ApplicationErrorException("Ошибка завершения индексации");
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
+        if (millis >= 0) {
+            return ResponseEntity.status(HttpStatus.OK)
+                    .body(new StatusIndexingResponse(true, "Индексация остановлена за " + millis + " мс"));
+        }
         return ResponseEntity.status(HttpStatus.OK)
                 .body(new StatusIndexingResponse(true,
                         "Процесс запущен, дождитесь завершения работы всех потоков"));
@@ -110,18 +144,124 @@ public class ApiController {
     public ResponseEntity<Object> searchPages(@RequestParam ("query")String query,
                                               @RequestParam (name = "site", required = false) String site,
                                               @RequestParam (name = "offset", defaultValue = "0") Integer offset,
-                                              @RequestParam (name = "limit", defaultValue = "5") Integer limit)
-            throws IOException, InterruptedException {
+                                              @RequestParam (name = "limit", defaultValue = "5") Integer limit,
+                                              @RequestParam (name = "timeout", required = false) Long timeout)
+            throws IOException {
         if (query.isBlank()) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new StatusIndexingResponse(false,
                     "Задан пустой поисковый запрос"));
         }
-        searchDataRepository.deleteAll();
-        SearchService searchService = new SearchService(lemmaRepository, pageRepository,
-                indexRepository, searchDataRepository);
+        String windowError = windowError(offset, limit);
+        if (windowError != null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new StatusIndexingResponse(false, windowError));
+        }
         if (site == null) {
             site = "";
         }
-        return ResponseEntity.status(HttpStatus.OK).body(searchService.getResponse(query, site, 0, 5));
+        ConcurrencyLimiter.Permit permit = admissionService.search();
+        try {
+            return ResponseEntity.status(HttpStatus.OK).body(searchService.getResponse(query, site,
+                    Math.max(0, offset), Math.max(0, limit), timeout));
+        } finally {
+            permit.close();
+        }
+    }
+
+    @PostMapping("/search/batch")
+    public ResponseEntity<Object> searchBatch(@RequestBody SearchBatchRequest request) throws IOException {
+        List<SearchQueryDto> queries = request.getQueries();
+        if (queries == null || queries.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new StatusIndexingResponse(false,
+                    "Не заданы поисковые запросы"));
+        }
+        if (queries.size() > searchSettings.getMaxBatchSize()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new StatusIndexingResponse(false,
+                    "Слишком много запросов, не больше " + searchSettings.getMaxBatchSize()));
+        }
+        for (SearchQueryDto query : queries) {
+            if (query.getQuery() == null || query.getQuery().isBlank()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new StatusIndexingResponse(false,
+                        "Задан пустой поисковый запрос"));
+            }
+            String windowError = windowError(query.getOffset(), query.getLimit());
+            if (windowError != null) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new StatusIndexingResponse(false,
+                        windowError));
+            }
+            query.setOffset(Math.max(0, query.getOffset()));
+            query.setLimit(Math.max(0, query.getLimit()));
+        }
+        ConcurrencyLimiter.Permit permit = admissionService.search();
+        try {
+            return ResponseEntity.ok(new SearchBatchResult(true,
+                    searchService.getBatchResponse(queries, request.getTimeout())));
+        } finally {
+            permit.close();
+        }
+    }
+
+    @GetMapping(value = "/search/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> searchPagesStream(@RequestParam ("query") String query,
+                                                                   @RequestParam (name = "site", required = false) String site,
+                                                                   @RequestParam (name = "offset", defaultValue = "0") Integer offset,
+                                                                   @RequestParam (name = "limit", defaultValue = "5") Integer limit,
+                                                                   @RequestParam (name = "timeout", required = false) Long timeout) {
+        if (query.isBlank()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(out ->
+                    new SearchStreamWriter(out, objectMapper).error("Задан пустой поисковый запрос"));
+        }
+        String windowError = windowError(offset, limit);
+        if (windowError != null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(out ->
+                    new SearchStreamWriter(out, objectMapper).error(windowError));
+        }
+        String url = site == null ? "" : site;
+        Deadline deadline = searchService.deadline(timeout);
+        ConcurrencyLimiter.Permit permit = admissionService.search();
+        return ResponseEntity.ok(out -> {
+            SearchStreamWriter writer = new SearchStreamWriter(out, objectMapper);
+            try (permit) {
+                boolean partial = searchService.search(query, url, Math.max(0, offset), Math.max(0, limit),
+                        deadline, writer);
+                writer.done(partial);
+            } catch (ApplicationErrorException e) {
+                writer.error(e.getMessage());
+            } catch (UncheckedIOException e) {
+                log.warn("Потоковый поиск прерван: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Проверяет окно выдачи запроса: смещение и число результатов не больше
+     * search-settings.max-offset и search-settings.max-limit.
+     *
+     * @return текст ошибки или null, если окно допустимо
+     */
+    private String windowError(int offset, int limit) {
+        if (offset > searchSettings.getMaxOffset()) {
+            return "Слишком большое смещение, не больше " + searchSettings.getMaxOffset();
+        }
+        if (limit > searchSettings.getMaxLimit()) {
+            return "Слишком много результатов на странице, не больше " + searchSettings.getMaxLimit();
+        }
+        return null;
+    }
+
+    @GetMapping("/suggest")
+    public ResponseEntity<SuggestResult> suggest(@RequestParam ("query") String query,
+                                                 @RequestParam (name = "limit", defaultValue = "10") Integer limit)
+            throws IOException {
+        return ResponseEntity.ok(new SuggestResult(true, suggestService.suggest(query, Math.max(0, limit))));
+    }
+
+    @GetMapping("/admission")
+    public ResponseEntity<List<AdmissionStatistics>> admissionStatistics() {
+        return ResponseEntity.ok(admissionService.getStatistics());
+    }
+
+    @GetMapping("/search/cache")
+    public ResponseEntity<List<SearchCacheStatistics>> searchCacheStatistics() {
+        return ResponseEntity.ok(searchResultCache.getStatistics());
     }
 }
\ No newline at end of file
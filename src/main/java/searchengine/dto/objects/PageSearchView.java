@@ -0,0 +1,18 @@
+package searchengine.dto.objects;
+
+/**
+ * Поля страницы, нужные для выдачи результата поиска, без исходного HTML.
+ */
+public interface PageSearchView {
+    Integer getId();
+
+    String getPath();
+
+    String getSiteUrl();
+
+    String getSiteName();
+
+    String getTitle();
+
+    String getText();
+}
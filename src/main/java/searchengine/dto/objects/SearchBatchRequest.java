@@ -0,0 +1,11 @@
+package searchengine.dto.objects;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class SearchBatchRequest {
+    private List<SearchQueryDto> queries;
+    private Long timeout;
+}
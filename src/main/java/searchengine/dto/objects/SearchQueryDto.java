@@ -0,0 +1,11 @@
+package searchengine.dto.objects;
+
+import lombok.Data;
+
+@Data
+public class SearchQueryDto {
+    private String query;
+    private String site;
+    private int offset = 0;
+    private int limit = 5;
+}
@@ -0,0 +1,12 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+@Data
+public class AdmissionStatistics {
+    private String name;
+    private int limit;
+    private int inFlight;
+    private int waiting;
+    private long rejected;
+}
@@ -0,0 +1,14 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+@Data
+public class SearchCacheStatistics {
+    private String name;
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long evictionCount;
+    private long generation;
+}
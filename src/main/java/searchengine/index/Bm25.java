@@ -0,0 +1,32 @@
+package searchengine.index;
+
+/**
+ * Формула BM25. Частота леммы на странице — rate, длина страницы — сумма rate всех её лемм.
+ */
+public final class Bm25 {
+
+    private final float k1;
+    private final float b;
+
+    public Bm25(float k1, float b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    public float idf(long docFrequency, long docCount) {
+        return (float) Math.log(1 + (docCount - docFrequency + 0.5) / (docFrequency + 0.5));
+    }
+
+    public float score(float frequency, float length, float averageLength) {
+        float norm = averageLength > 0 ? 1 - b + b * length / averageLength : 1;
+        return frequency * (k1 + 1) / (frequency + k1 * norm);
+    }
+
+    /**
+     * Верхняя граница score для частоты не больше maxFrequency: оценка растёт с частотой
+     * и убывает с длиной страницы, поэтому берётся нулевая длина.
+     */
+    public float maxScore(float maxFrequency) {
+        return maxFrequency * (k1 + 1) / (maxFrequency + k1 * (1 - b));
+    }
+}
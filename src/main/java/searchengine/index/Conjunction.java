@@ -0,0 +1,115 @@
+package searchengine.index;
+
+import java.util.stream.IntStream;
+
+/**
+ * Пересечение списков страниц. Обход идёт по самому короткому списку, остальные
+ * догоняют его через курсоры {@link PostingList.Cursor}, а кандидат, отсутствующий в очередном списке,
+ * сразу переносится на следующий id из этого списка. Как только любой список
+ * заканчивается, пересечение завершается.
+ */
+public final class Conjunction {
+
+    private final PostingList[] lists;
+    private final PostingList.Cursor[] cursors;
+    private final int[] order;
+    private final int[] positions;
+    private boolean exhausted;
+
+    public Conjunction(PostingList[] lists) {
+        order = IntStream.range(0, lists.length).boxed()
+                .sorted((a, b) -> Integer.compare(lists[a].size(), lists[b].size()))
+                .mapToInt(Integer::intValue).toArray();
+        this.lists = new PostingList[lists.length];
+        cursors = new PostingList.Cursor[lists.length];
+        for (int i = 0; i < order.length; i++) {
+            this.lists[i] = lists[order[i]];
+            cursors[i] = this.lists[i].cursor();
+        }
+        positions = new int[lists.length];
+        if (lists.length > 0) {
+            positions[0] = -1;
+        }
+        exhausted = lists.length == 0 || this.lists[0].size() == 0;
+    }
+
+    /**
+     * Следующая страница, присутствующая во всех списках, или -1.
+     */
+    public int next() {
+        if (exhausted) {
+            return -1;
+        }
+        PostingList.Cursor lead = cursors[0];
+        int leadSize = lists[0].size();
+        int leadPosition = positions[0] + 1;
+        while (leadPosition < leadSize) {
+            int candidate = lead.pageId(leadPosition);
+            int i = 1;
+            for (; i < lists.length; i++) {
+                int position = cursors[i].advance(positions[i], candidate);
+                positions[i] = position;
+                if (position == lists[i].size()) {
+                    exhausted = true;
+                    return -1;
+                }
+                int pageId = cursors[i].pageId(position);
+                if (pageId != candidate) {
+                    leadPosition = lead.advance(leadPosition + 1, pageId);
+                    break;
+                }
+            }
+            if (i == lists.length) {
+                positions[0] = leadPosition;
+                return candidate;
+            }
+        }
+        exhausted = true;
+        return -1;
+    }
+
+    /**
+     * Позиция текущей страницы в самом коротком списке, -1 до первого вызова next.
+     */
+    public int leadPosition() {
+        return positions[0];
+    }
+
+    /**
+     * Пропускает страницы самого короткого списка до позиции position, не проверяя их.
+     */
+    public void skipLeadTo(int position) {
+        if (!exhausted && position - 1 > positions[0]) {
+            positions[0] = position - 1;
+        }
+    }
+
+    public int listCount() {
+        return lists.length;
+    }
+
+    /**
+     * Rate текущей страницы в i-м списке, списки упорядочены по возрастанию длины.
+     */
+    public float rate(int list) {
+        return lists[list].rate(positions[list]);
+    }
+
+    /**
+     * Позиции леммы на текущей странице в i-м списке или null, если они не записаны.
+     */
+    public byte[] pagePositions(int list) {
+        return lists[list].positions(positions[list]);
+    }
+
+    public PostingList list(int list) {
+        return lists[list];
+    }
+
+    /**
+     * Номер i-го по длине списка в массиве, переданном в конструктор.
+     */
+    public int originalIndex(int list) {
+        return order[list];
+    }
+}
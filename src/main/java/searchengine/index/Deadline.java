@@ -0,0 +1,54 @@
+package searchengine.index;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Крайний срок выполнения запроса. Этапы поиска проверяют его сами и, если время вышло,
+ * возвращают то, что успели найти.
+ */
+public final class Deadline {
+
+    public static final Deadline NONE = new Deadline(0, false);
+
+    /**
+     * Наибольший срок в наносекундах, при котором сравнение с System.nanoTime() не переполняется.
+     */
+    private static final long MAX_NANOS = Long.MAX_VALUE / 2;
+
+    private final long deadlineNanos;
+    private final boolean enabled;
+    private volatile boolean expired;
+
+    private Deadline(long deadlineNanos, boolean enabled) {
+        this.deadlineNanos = deadlineNanos;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Срок через millis миллисекунд от текущего момента; неположительное значение — без срока.
+     * Слишком большие значения ограничиваются, а не переполняются.
+     */
+    public static Deadline after(long millis) {
+        if (millis <= 0) {
+            return NONE;
+        }
+        return new Deadline(System.nanoTime() + Math.min(TimeUnit.MILLISECONDS.toNanos(millis), MAX_NANOS), true);
+    }
+
+    public boolean expired() {
+        if (!enabled) {
+            return false;
+        }
+        if (!expired && System.nanoTime() - deadlineNanos >= 0) {
+            expired = true;
+        }
+        return expired;
+    }
+
+    /**
+     * Оставшееся время в наносекундах, Long.MAX_VALUE для запроса без срока.
+     */
+    public long remainingNanos() {
+        return enabled ? Math.max(0, deadlineNanos - System.nanoTime()) : Long.MAX_VALUE;
+    }
+}
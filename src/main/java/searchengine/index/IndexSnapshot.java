@@ -0,0 +1,185 @@
+package searchengine.index;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Двоичный снимок поисковых структур в памяти. Формат файла:
+ * заголовок (сигнатура, версия, поколение), сайты, сайт каждой страницы, словарь лемм,
+ * списки страниц по сайтам с позициями лемм и в конце CRC32 всего предыдущего содержимого.
+ * Длины страниц не сохраняются, они восстанавливаются из rate при загрузке.
+ * Снимок хранит поколение индекса в базе и максимальные id строк search_index, page и lemma,
+ * попавших в него: строки, добавленные позже, догружаются при старте, а снимок другого
+ * поколения, то есть сделанный до изменения или удаления существующих строк, не используется.
+ */
+@Getter
+@AllArgsConstructor
+public class IndexSnapshot {
+
+    private static final int MAGIC = 0x53454958;
+    public static final int VERSION = 4;
+
+    private final long generation;
+    private final long maxIndexId;
+    private final int maxPageId;
+    private final int maxLemmaId;
+    private final long postingsCount;
+    private final Map<String, Integer> siteIds;
+    private final int[] pageSites;
+    private final Map<String, Integer> lemmaIds;
+    private final Map<Integer, Map<Integer, PostingList>> partitions;
+
+    public void write(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (OutputStream file = Files.newOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                        new BufferedOutputStream(file, 1 << 16), crc));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(generation);
+                out.writeLong(maxIndexId);
+                out.writeInt(maxPageId);
+                out.writeInt(maxLemmaId);
+                out.writeLong(postingsCount);
+                out.writeInt(siteIds.size());
+                for (Map.Entry<String, Integer> site : siteIds.entrySet()) {
+                    out.writeInt(site.getValue());
+                    writeString(out, site.getKey());
+                }
+                out.writeInt(pageSites.length);
+                for (int siteId : pageSites) {
+                    out.writeInt(siteId);
+                }
+                out.writeInt(lemmaIds.size());
+                for (Map.Entry<String, Integer> lemma : lemmaIds.entrySet()) {
+                    out.writeInt(lemma.getValue());
+                    writeString(out, lemma.getKey());
+                }
+                out.writeInt(partitions.size());
+                for (Map.Entry<Integer, Map<Integer, PostingList>> partition : partitions.entrySet()) {
+                    out.writeInt(partition.getKey());
+                    out.writeInt(partition.getValue().size());
+                    for (Map.Entry<Integer, PostingList> postings : partition.getValue().entrySet()) {
+                        out.writeInt(postings.getKey());
+                        postings.getValue().writeTo(out);
+                    }
+                }
+                out.flush();
+                new DataOutputStream(file).writeLong(crc.getValue());
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Читает снимок потоком в два прохода: сначала сверяет контрольную сумму, затем разбирает
+     * содержимое, поэтому повреждённый файл не приводит к выделению памяти по ошибочным длинам.
+     * Возвращает null, если файла нет, версия не совпадает или контрольная сумма неверна.
+     */
+    public static IndexSnapshot read(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        long length = Files.size(path);
+        if (length < 40 || !checksumMatches(path, length - 8)) {
+            return null;
+        }
+        try (InputStream file = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long generation = in.readLong();
+            long maxIndexId = in.readLong();
+            int maxPageId = in.readInt();
+            int maxLemmaId = in.readInt();
+            long postingsCount = in.readLong();
+            int sitesCount = in.readInt();
+            Map<String, Integer> siteIds = new HashMap<>();
+            for (int i = 0; i < sitesCount; i++) {
+                int id = in.readInt();
+                siteIds.put(readString(in), id);
+            }
+            int[] pageSites = new int[in.readInt()];
+            for (int i = 0; i < pageSites.length; i++) {
+                pageSites[i] = in.readInt();
+            }
+            int lemmasCount = in.readInt();
+            Map<String, Integer> lemmaIds = new HashMap<>(lemmasCount * 2);
+            for (int i = 0; i < lemmasCount; i++) {
+                int id = in.readInt();
+                lemmaIds.put(readString(in), id);
+            }
+            int partitionsCount = in.readInt();
+            Map<Integer, Map<Integer, PostingList>> partitions = new HashMap<>();
+            for (int i = 0; i < partitionsCount; i++) {
+                int siteId = in.readInt();
+                int listsCount = in.readInt();
+                Map<Integer, PostingList> postings = new HashMap<>(listsCount * 2);
+                for (int j = 0; j < listsCount; j++) {
+                    int lemmaId = in.readInt();
+                    PostingList list = PostingList.readFrom(in);
+                    if (list.size() > 0) {
+                        postings.put(lemmaId, list);
+                    }
+                }
+                partitions.put(siteId, postings);
+            }
+            return new IndexSnapshot(generation, maxIndexId, maxPageId, maxLemmaId, postingsCount,
+                    siteIds, pageSites, lemmaIds, partitions);
+        }
+    }
+
+    /**
+     * Сравнивает CRC32 первых length байт файла с числом, записанным сразу после них.
+     */
+    private static boolean checksumMatches(Path path, long length) throws IOException {
+        try (InputStream file = Files.newInputStream(path)) {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[1 << 16];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = file.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    return false;
+                }
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+            return crc.getValue() == new DataInputStream(file).readLong();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
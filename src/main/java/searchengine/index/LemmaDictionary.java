@@ -0,0 +1,158 @@
+package searchengine.index;
+
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import java.nio.CharBuffer;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Отсортированный словарь лемм в одном массиве символов с числом страниц для каждой.
+ * Поиск похожих лемм пересекает автомат Левенштейна со словарём как с префиксным деревом:
+ * группы лемм с общим префиксом обходятся, только пока автомат из этого префикса
+ * ещё может дойти до допускающего состояния, поэтому большая часть словаря не просматривается.
+ */
+public final class LemmaDictionary {
+
+    public static final LemmaDictionary EMPTY = build(new TreeMap<>());
+
+    private final char[] chars;
+    private final int[] offsets;
+    private final int[] frequencies;
+
+    private LemmaDictionary(char[] chars, int[] offsets, int[] frequencies) {
+        this.chars = chars;
+        this.offsets = offsets;
+        this.frequencies = frequencies;
+    }
+
+    /**
+     * @param lemmas леммы в естественном порядке строк и число страниц с каждой из них
+     */
+    public static LemmaDictionary build(SortedMap<String, Integer> lemmas) {
+        int length = 0;
+        for (String lemma : lemmas.keySet()) {
+            length += lemma.length();
+        }
+        char[] chars = new char[length];
+        int[] offsets = new int[lemmas.size() + 1];
+        int[] frequencies = new int[lemmas.size()];
+        int index = 0;
+        for (Map.Entry<String, Integer> entry : lemmas.entrySet()) {
+            String lemma = entry.getKey();
+            lemma.getChars(0, lemma.length(), chars, offsets[index]);
+            offsets[index + 1] = offsets[index] + lemma.length();
+            frequencies[index++] = entry.getValue();
+        }
+        return new LemmaDictionary(chars, offsets, frequencies);
+    }
+
+    public int size() {
+        return frequencies.length;
+    }
+
+    public long ramBytesUsed() {
+        return 16L + 2L * chars.length + 4L * offsets.length + 4L * frequencies.length;
+    }
+
+    /**
+     * Лемма словаря на расстоянии Дамерау — Левенштейна не больше maxEdits от word:
+     * сначала ищутся ближайшие, среди равноудалённых выбирается встречающаяся на большем
+     * числе страниц. При двух правках первая буква должна совпадать, как prefixLength
+     * в FuzzyQuery: это отсекает большую часть словаря. Возвращает null, если подходящей леммы нет.
+     */
+    public String closest(String word, int maxEdits) {
+        if (size() == 0 || word.isEmpty()) {
+            return null;
+        }
+        int limit = Math.min(maxEdits, LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE);
+        for (int edits = 1; edits <= limit; edits++) {
+            Automaton automaton = edits == 1 ? new LevenshteinAutomata(word, true).toAutomaton(1)
+                    : new LevenshteinAutomata(word.substring(1), true).toAutomaton(edits, word.substring(0, 1));
+            Match match = new Match(word);
+            walk(new CharacterRunAutomaton(automaton), 0, 0, size(), 0, match);
+            if (match.index >= 0) {
+                return new String(chars, offsets[match.index], length(match.index));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Обходит леммы [from, to), у которых первые depth символов совпадают
+     * и переводят автомат в состояние state.
+     */
+    private void walk(CharacterRunAutomaton automaton, int state, int from, int to, int depth, Match match) {
+        if (to - from == 1) {
+            for (int i = depth; i < length(from) && state != -1; i++) {
+                state = automaton.step(state, charAt(from, i));
+            }
+            if (state != -1 && automaton.isAccept(state)) {
+                match.offer(from);
+            }
+            return;
+        }
+        if (length(from) == depth) {
+            if (automaton.isAccept(state)) {
+                match.offer(from);
+            }
+            from++;
+        }
+        while (from < to) {
+            char c = charAt(from, depth);
+            int end = groupEnd(from, to, depth, c);
+            int next = automaton.step(state, c);
+            if (next != -1) {
+                walk(automaton, next, from, end, depth + 1, match);
+            }
+            from = end;
+        }
+    }
+
+    /**
+     * Первая лемма в [from, to), у которой символ depth больше c.
+     */
+    private int groupEnd(int from, int to, int depth, char c) {
+        int low = from + 1;
+        int high = to - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (charAt(middle, depth) <= c) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private int length(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    private char charAt(int index, int depth) {
+        return chars[offsets[index] + depth];
+    }
+
+    private class Match {
+        private final String word;
+        private int index = -1;
+
+        Match(String word) {
+            this.word = word;
+        }
+
+        void offer(int candidate) {
+            if (index >= 0 && frequencies[candidate] <= frequencies[index]) {
+                return;
+            }
+            if (length(candidate) == word.length() && word.contentEquals(
+                    CharBuffer.wrap(chars, offsets[candidate], length(candidate)))) {
+                return;
+            }
+            index = candidate;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package searchengine.index;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Сжатые наборы id страниц в формате Roaring: один на каждую лемму по всем сайтам
+ * и один на каждый сайт. Пересечение лемм, ограничение сайтом и исключение лемм
+ * выполняются операциями AND и ANDNOT над словами битовых контейнеров.
+ * Наборы не потокобезопасны, поэтому изменения идут под блокировкой записи,
+ * а вычисления запросов — под блокировкой чтения.
+ */
+public final class PageSets {
+
+    private final Map<Integer, RoaringBitmap> lemmaPages = new HashMap<>();
+    private final Map<Integer, RoaringBitmap> sitePages = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public void addPosting(int lemmaId, int pageId) {
+        lock.writeLock().lock();
+        try {
+            lemmaPages.computeIfAbsent(lemmaId, id -> new RoaringBitmap()).add(pageId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removePosting(int lemmaId, int pageId) {
+        lock.writeLock().lock();
+        try {
+            RoaringBitmap pages = lemmaPages.get(lemmaId);
+            if (pages != null) {
+                pages.remove(pageId);
+                if (pages.isEmpty()) {
+                    lemmaPages.remove(lemmaId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void setPageSite(int pageId, int previousSiteId, int siteId) {
+        lock.writeLock().lock();
+        try {
+            if (previousSiteId != 0) {
+                RoaringBitmap pages = sitePages.get(previousSiteId);
+                if (pages != null) {
+                    pages.remove(pageId);
+                }
+            }
+            if (siteId != 0) {
+                sitePages.computeIfAbsent(siteId, id -> new RoaringBitmap()).add(pageId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Заново строит наборы по спискам страниц всех сайтов и сайту каждой страницы.
+     */
+    public void rebuild(Collection<SitePartition> partitions, int[] pageSites) {
+        Map<Integer, RoaringBitmap> lemmas = new HashMap<>();
+        Map<Integer, RoaringBitmap> sites = new HashMap<>();
+        int[] buffer = new int[1024];
+        for (int pageId = 0; pageId < pageSites.length; pageId++) {
+            if (pageSites[pageId] != 0) {
+                sites.computeIfAbsent(pageSites[pageId], id -> new RoaringBitmap()).add(pageId);
+            }
+        }
+        for (SitePartition partition : partitions) {
+            for (Map.Entry<Integer, PostingList> postings : partition.getPostings().entrySet()) {
+                PostingList list = postings.getValue();
+                if (buffer.length < list.size()) {
+                    buffer = new int[list.size()];
+                }
+                for (int i = 0; i < list.size(); i++) {
+                    buffer[i] = list.pageId(i);
+                }
+                lemmas.computeIfAbsent(postings.getKey(), id -> new RoaringBitmap()).addN(buffer, 0, list.size());
+            }
+        }
+        lemmas.values().forEach(RoaringBitmap::runOptimize);
+        sites.values().forEach(RoaringBitmap::runOptimize);
+        lock.writeLock().lock();
+        try {
+            lemmaPages.clear();
+            lemmaPages.putAll(lemmas);
+            sitePages.clear();
+            sitePages.putAll(sites);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            lemmaPages.clear();
+            sitePages.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Страницы, содержащие все леммы included и ни одной из excluded, на сайте siteId
+     * или на всех сайтах при siteId = 0.
+     */
+    public RoaringBitmap match(Collection<Integer> included, Collection<Integer> excluded, int siteId) {
+        lock.readLock().lock();
+        try {
+            List<RoaringBitmap> sets = new ArrayList<>();
+            for (Integer lemmaId : included) {
+                RoaringBitmap pages = lemmaPages.get(lemmaId);
+                if (pages == null) {
+                    return new RoaringBitmap();
+                }
+                sets.add(pages);
+            }
+            if (siteId != 0) {
+                sets.add(sitePages.getOrDefault(siteId, new RoaringBitmap()));
+            }
+            if (sets.isEmpty()) {
+                return new RoaringBitmap();
+            }
+            RoaringBitmap result = sets.size() == 1 ? sets.get(0).clone()
+                    : FastAggregation.and(sets.toArray(new RoaringBitmap[0]));
+            for (Integer lemmaId : excluded) {
+                RoaringBitmap pages = lemmaPages.get(lemmaId);
+                if (pages != null) {
+                    result.andNot(pages);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Объединение наборов лемм, например для исключаемых лемм запроса.
+     */
+    public RoaringBitmap union(Collection<Integer> lemmaIds) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap result = new RoaringBitmap();
+            for (Integer lemmaId : lemmaIds) {
+                RoaringBitmap pages = lemmaPages.get(lemmaId);
+                if (pages != null) {
+                    result.or(pages);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (RoaringBitmap pages : lemmaPages.values()) {
+                bytes += pages.getSizeInBytes() + 48;
+            }
+            for (RoaringBitmap pages : sitePages.values()) {
+                bytes += pages.getSizeInBytes() + 48;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package searchengine.index;
+
+import java.util.List;
+
+/**
+ * Фраза из запроса в кавычках: леммы и их позиции относительно первого слова фразы.
+ * Пропущенные стоп-слова сохраняют расстояние между леммами.
+ */
+public record Phrase(List<String> lemmas, List<Integer> offsets) {
+
+    /**
+     * Строка для ключа кэша результатов.
+     */
+    public String key() {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < lemmas.size(); i++) {
+            builder.append(i == 0 ? "" : " ").append(lemmas.get(i)).append('@').append(offsets.get(i));
+        }
+        return builder.append('"').toString();
+    }
+}
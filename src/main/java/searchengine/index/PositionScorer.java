@@ -0,0 +1,97 @@
+package searchengine.index;
+
+import java.util.List;
+
+/**
+ * Проверка фраз и поправка оценки за близость лемм по их позициям на странице.
+ * Леммы запроса нумеруются в порядке, в котором передаются в поиск. Страница подходит,
+ * если каждая фраза встречается в ней подряд; оценка умножается на
+ * 1 + weight · (n − 1) / (span − 1), где span — длина наименьшего участка
+ * со всеми n леммами, так что соседние леммы дают полную прибавку weight.
+ * Страницы, проиндексированные без позиций, фразам не противоречат и прибавки не получают.
+ */
+public final class PositionScorer {
+
+    public static final PositionScorer NONE = new PositionScorer(0, new int[0][], new int[0][], 0);
+
+    private final int termCount;
+    private final int[][] phraseTerms;
+    private final int[][] phraseOffsets;
+    private final float proximityWeight;
+
+    private PositionScorer(int termCount, int[][] phraseTerms, int[][] phraseOffsets, float proximityWeight) {
+        this.termCount = termCount;
+        this.phraseTerms = phraseTerms;
+        this.phraseOffsets = phraseOffsets;
+        this.proximityWeight = proximityWeight;
+    }
+
+    /**
+     * @param terms   леммы запроса в порядке нумерации
+     * @param phrases фразы запроса; фразы из одной леммы или с леммами не из terms не учитываются
+     */
+    public static PositionScorer of(List<String> terms, List<Phrase> phrases, float proximityWeight) {
+        List<Phrase> checked = phrases.stream()
+                .filter(phrase -> phrase.lemmas().size() > 1 && terms.containsAll(phrase.lemmas())).toList();
+        float weight = terms.size() > 1 ? proximityWeight : 0;
+        if (checked.isEmpty() && weight <= 0) {
+            return NONE;
+        }
+        int[][] phraseTerms = new int[checked.size()][];
+        int[][] phraseOffsets = new int[checked.size()][];
+        for (int i = 0; i < checked.size(); i++) {
+            Phrase phrase = checked.get(i);
+            phraseTerms[i] = phrase.lemmas().stream().mapToInt(terms::indexOf).toArray();
+            phraseOffsets[i] = phrase.offsets().stream().mapToInt(Integer::intValue).toArray();
+        }
+        return new PositionScorer(terms.size(), phraseTerms, phraseOffsets, Math.max(0, weight));
+    }
+
+    public boolean isEnabled() {
+        return this != NONE;
+    }
+
+    public boolean hasPhrases() {
+        return phraseTerms.length > 0;
+    }
+
+    /**
+     * Во сколько раз поправка может увеличить оценку, для верхних границ отсечения.
+     */
+    public float maxBoost() {
+        return 1 + proximityWeight;
+    }
+
+    /**
+     * Оценка страницы с поправкой за близость или -1, если страница не содержит фразу.
+     *
+     * @param termPositions позиции каждой леммы запроса в кодировке {@link Positions}, элементы могут быть null
+     */
+    public float score(byte[][] termPositions, float score) {
+        int[][] positions = new int[termCount][];
+        for (int i = 0; i < termCount; i++) {
+            positions[i] = termPositions[i] == null ? null : Positions.decode(termPositions[i]);
+        }
+        for (int i = 0; i < phraseTerms.length; i++) {
+            int[][] phrase = new int[phraseTerms[i].length][];
+            boolean known = true;
+            for (int j = 0; j < phrase.length && known; j++) {
+                phrase[j] = positions[phraseTerms[i][j]];
+                known = phrase[j] != null && phrase[j].length > 0;
+            }
+            if (known && !Positions.containsPhrase(phrase, phraseOffsets[i])) {
+                return -1;
+            }
+        }
+        if (proximityWeight <= 0) {
+            return score;
+        }
+        for (int[] list : positions) {
+            if (list == null || list.length == 0) {
+                return score;
+            }
+        }
+        int span = Positions.minimalSpan(positions);
+        return score * (1 + proximityWeight * (termCount - 1) / Math.max(termCount - 1, span - 1));
+    }
+}
@@ -0,0 +1,96 @@
+package searchengine.index;
+
+import java.util.Arrays;
+
+/**
+ * Позиции леммы на странице: номера слов текста, нормальная форма которых — эта лемма.
+ * Слова нумеруются подряд, включая стоп-слова и слова без леммы, как позиции в Lucene.
+ * Хранятся как разности соседних позиций в формате varint.
+ */
+public final class Positions {
+
+    private Positions() {
+    }
+
+    public static byte[] encode(int[] positions, int size) {
+        byte[] bytes = new byte[size * 5];
+        int length = 0;
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            int delta = positions[i] - previous;
+            previous = positions[i];
+            while ((delta & ~0x7F) != 0) {
+                bytes[length++] = (byte) (delta & 0x7F | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte) delta;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    public static int[] decode(byte[] bytes) {
+        int[] positions = new int[bytes.length];
+        int size = 0;
+        int previous = 0;
+        int i = 0;
+        while (i < bytes.length) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[i++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += delta;
+            positions[size++] = previous;
+        }
+        return Arrays.copyOf(positions, size);
+    }
+
+    /**
+     * Есть ли позиция p, для которой каждая лемма i стоит на позиции p + offsets[i].
+     */
+    public static boolean containsPhrase(int[][] positions, int[] offsets) {
+        int rarest = 0;
+        for (int i = 1; i < positions.length; i++) {
+            if (positions[i].length < positions[rarest].length) {
+                rarest = i;
+            }
+        }
+        for (int position : positions[rarest]) {
+            int start = position - offsets[rarest];
+            boolean found = true;
+            for (int i = 0; i < positions.length && found; i++) {
+                found = i == rarest || Arrays.binarySearch(positions[i], start + offsets[i]) >= 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Длина в словах наименьшего участка текста, содержащего хотя бы одну позицию из каждого списка.
+     */
+    public static int minimalSpan(int[][] positions) {
+        int[] cursors = new int[positions.length];
+        int best = Integer.MAX_VALUE;
+        while (true) {
+            int min = 0;
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < positions.length; i++) {
+                int value = positions[i][cursors[i]];
+                if (value < positions[min][cursors[min]]) {
+                    min = i;
+                }
+                max = Math.max(max, value);
+            }
+            best = Math.min(best, max - positions[min][cursors[min]] + 1);
+            if (++cursors[min] == positions[min].length) {
+                return best;
+            }
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package searchengine.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Неизменяемый снимок списка страниц одной леммы: отсортированные id страниц,
+ * параллельный массив rate и позиции леммы на странице (см. {@link Positions},
+ * null для страниц, проиндексированных без позиций).
+ * <p>
+ * Id страниц хранятся блоками по {@link #BLOCK_SIZE}: для каждого заполненного блока —
+ * первый id и ширина в битах, сами id записаны упакованными разностями с первым id блока
+ * (frame of reference), поэтому доступ к id по номеру остаётся O(1), а последовательный
+ * обход идёт через {@link Cursor}. Последний неполный блок хранится обычным int[]
+ * и упаковывается, когда заполнится. Позиции всех страниц лежат подряд в одном byte[],
+ * для каждой страницы хранится конец её участка; пустой участок означает отсутствие позиций.
+ * <p>
+ * Массивы могут быть длиннее используемой части, запись в хвост за её пределами
+ * не видна уже выданным снимкам, поэтому добавление в конец не копирует данные.
+ * Для каждого блока хранится максимальный rate, он служит верхней оценкой
+ * при отсечении неконкурентных страниц.
+ */
+public final class PostingList {
+
+    public static final int BLOCK_SIZE = 128;
+    private static final int BLOCK_SHIFT = 7;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    private static final int[] NO_IDS = new int[0];
+    private static final byte[] NO_BYTES = new byte[0];
+    public static final PostingList EMPTY = new PostingList(new int[0], new byte[0], new int[0], new long[0], 0,
+            NO_IDS, new float[0], new int[0], NO_BYTES, 0, new float[0], 0);
+
+    private final int[] blockBases;
+    private final byte[] blockWidths;
+    private final int[] blockStarts;
+    private final long[] packed;
+    private final int sealedBlocks;
+    private final int[] tail;
+    private final float[] rates;
+    private final int[] positionEnds;
+    private final byte[] positionData;
+    private final int size;
+    private final float[] blockMaxRates;
+    private final float maxRate;
+
+    private PostingList(int[] blockBases, byte[] blockWidths, int[] blockStarts, long[] packed, int sealedBlocks,
+                        int[] tail, float[] rates, int[] positionEnds, byte[] positionData, int size,
+                        float[] blockMaxRates, float maxRate) {
+        this.blockBases = blockBases;
+        this.blockWidths = blockWidths;
+        this.blockStarts = blockStarts;
+        this.packed = packed;
+        this.sealedBlocks = sealedBlocks;
+        this.tail = tail;
+        this.rates = rates;
+        this.positionEnds = positionEnds;
+        this.positionData = positionData;
+        this.size = size;
+        this.blockMaxRates = blockMaxRates;
+        this.maxRate = maxRate;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int pageId(int index) {
+        int block = index >> BLOCK_SHIFT;
+        if (block >= sealedBlocks) {
+            return tail[index & BLOCK_MASK];
+        }
+        int width = blockWidths[block];
+        long bit = (long) (index & BLOCK_MASK) * width;
+        int word = blockStarts[block] + (int) (bit >>> 6);
+        int shift = (int) bit & 63;
+        long value = packed[word] >>> shift;
+        if (shift + width > 64) {
+            value |= packed[word + 1] << (64 - shift);
+        }
+        return blockBases[block] + (int) (value & (1L << width) - 1);
+    }
+
+    public float rate(int index) {
+        return rates[index];
+    }
+
+    public byte[] positions(int index) {
+        int start = index == 0 ? 0 : positionEnds[index - 1];
+        int end = positionEnds[index];
+        return start == end ? null : Arrays.copyOfRange(positionData, start, end);
+    }
+
+    public float maxRate() {
+        return maxRate;
+    }
+
+    /**
+     * Максимальный rate в блоке, которому принадлежит позиция. Оценка может быть
+     * завышена, если в блок позже дописывались страницы, но никогда не занижена.
+     */
+    public float blockMaxRate(int index) {
+        return blockMaxRates[index >> BLOCK_SHIFT];
+    }
+
+    /**
+     * Позиция, следующая за последней позицией блока, которому принадлежит index.
+     */
+    public int blockEnd(int index) {
+        return Math.min(size, ((index >> BLOCK_SHIFT) + 1) << BLOCK_SHIFT);
+    }
+
+    /**
+     * Позиция страницы в списке или отрицательное число, как у Arrays.binarySearch.
+     */
+    public int indexOf(int pageId) {
+        return binarySearch(0, size, pageId);
+    }
+
+    /**
+     * Курсор для последовательного обхода списка, см. {@link Cursor}.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    private int blockBase(int block) {
+        return block < sealedBlocks ? blockBases[block] : tail[0];
+    }
+
+    private void decode(int block, int[] buffer) {
+        if (block >= sealedBlocks) {
+            System.arraycopy(tail, 0, buffer, 0, size - (block << BLOCK_SHIFT));
+            return;
+        }
+        int width = blockWidths[block];
+        int start = blockStarts[block];
+        int base = blockBases[block];
+        long mask = (1L << width) - 1;
+        long bits = packed[start];
+        int available = 64;
+        int word = start + 1;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (available >= width) {
+                buffer[i] = base + (int) (bits & mask);
+                bits >>>= width;
+                available -= width;
+            } else {
+                long next = packed[word++];
+                buffer[i] = base + (int) ((bits | next << available) & mask);
+                bits = next >>> (width - available);
+                available += 64 - width;
+            }
+        }
+    }
+
+    private int binarySearch(int from, int to, int pageId) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = pageId(middle);
+            if (value < pageId) {
+                low = middle + 1;
+            } else if (value > pageId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Возвращает новый снимок с добавленной или обновлённой страницей.
+     * Вызывающий код должен гарантировать, что добавление идёт только к последнему снимку.
+     */
+    public PostingList with(int pageId, float rate, byte[] pagePositions) {
+        int index = indexOf(pageId);
+        if (index >= 0) {
+            byte[][] newPositions = positionsArray();
+            float[] newRates = Arrays.copyOf(rates, size);
+            newRates[index] = rate;
+            newPositions[index] = pagePositions;
+            return build(pageIdsArray(), newRates, newPositions, size);
+        }
+        int insert = -index - 1;
+        if (insert < size) {
+            int[] ids = new int[size + 1];
+            float[] newRates = new float[size + 1];
+            byte[][] newPositions = new byte[size + 1][];
+            int[] oldIds = pageIdsArray();
+            byte[][] oldPositions = positionsArray();
+            System.arraycopy(oldIds, 0, ids, 0, insert);
+            System.arraycopy(rates, 0, newRates, 0, insert);
+            System.arraycopy(oldPositions, 0, newPositions, 0, insert);
+            ids[insert] = pageId;
+            newRates[insert] = rate;
+            newPositions[insert] = pagePositions;
+            System.arraycopy(oldIds, insert, ids, insert + 1, size - insert);
+            System.arraycopy(rates, insert, newRates, insert + 1, size - insert);
+            System.arraycopy(oldPositions, insert, newPositions, insert + 1, size - insert);
+            return build(ids, newRates, newPositions, size + 1);
+        }
+        return append(pageId, rate, pagePositions);
+    }
+
+    /**
+     * Добавляет страницу в конец списка. Массивы, в которых есть место, используются
+     * совместно с этим снимком, остальные растут копированием.
+     */
+    private PostingList append(int pageId, float rate, byte[] pagePositions) {
+        int tailSize = size & BLOCK_MASK;
+        int[] newTail = tailSize < tail.length ? tail : Arrays.copyOf(tail, grow(tail.length, BLOCK_SIZE));
+        newTail[tailSize] = pageId;
+        float[] newRates = size < rates.length ? rates : Arrays.copyOf(rates, grow(rates.length, Integer.MAX_VALUE));
+        int[] newEnds = size < positionEnds.length ? positionEnds : Arrays.copyOf(positionEnds, newRates.length);
+        int start = size == 0 ? 0 : positionEnds[size - 1];
+        int length = pagePositions == null ? 0 : pagePositions.length;
+        byte[] newData = start + length <= positionData.length ? positionData
+                : Arrays.copyOf(positionData, Math.max(start + length, grow(positionData.length, Integer.MAX_VALUE)));
+        if (length > 0) {
+            System.arraycopy(pagePositions, 0, newData, start, length);
+        }
+        newRates[size] = rate;
+        newEnds[size] = start + length;
+        int block = size >> BLOCK_SHIFT;
+        float[] newBlockMaxRates = block < blockMaxRates.length ? blockMaxRates
+                : Arrays.copyOf(blockMaxRates, grow(blockMaxRates.length, Integer.MAX_VALUE));
+        newBlockMaxRates[block] = Math.max(newBlockMaxRates[block], rate);
+        float newMaxRate = Math.max(maxRate, rate);
+        if (tailSize + 1 < BLOCK_SIZE) {
+            return new PostingList(blockBases, blockWidths, blockStarts, packed, sealedBlocks, newTail, newRates,
+                    newEnds, newData, size + 1, newBlockMaxRates, newMaxRate);
+        }
+        int[] newBases = sealedBlocks < blockBases.length ? blockBases
+                : Arrays.copyOf(blockBases, grow(blockBases.length, Integer.MAX_VALUE));
+        byte[] newWidths = sealedBlocks < blockWidths.length ? blockWidths
+                : Arrays.copyOf(blockWidths, newBases.length);
+        int[] newStarts = sealedBlocks < blockStarts.length ? blockStarts
+                : Arrays.copyOf(blockStarts, newBases.length);
+        int words = packedWords();
+        int width = width(newTail, 0);
+        long[] newPacked = words + 2 * width <= packed.length ? packed
+                : Arrays.copyOf(packed, Math.max(words + 2 * width, grow(packed.length, Integer.MAX_VALUE)));
+        pack(newTail, 0, width, newPacked, words);
+        newBases[sealedBlocks] = newTail[0];
+        newWidths[sealedBlocks] = (byte) width;
+        newStarts[sealedBlocks] = words;
+        return new PostingList(newBases, newWidths, newStarts, newPacked, sealedBlocks + 1, NO_IDS, newRates,
+                newEnds, newData, size + 1, newBlockMaxRates, newMaxRate);
+    }
+
+    /**
+     * Последовательный доступ к id страниц одного снимка: текущий блок распаковывается
+     * целиком в буфер, а блоки, все id которых меньше искомого, пропускаются по первым id
+     * блоков без распаковки. Курсор не потокобезопасен.
+     */
+    public final class Cursor {
+
+        private final int[] buffer = new int[BLOCK_SIZE];
+        private int block = -1;
+
+        private Cursor() {
+        }
+
+        public int pageId(int index) {
+            int indexBlock = index >> BLOCK_SHIFT;
+            if (indexBlock != block) {
+                load(indexBlock);
+            }
+            return buffer[index & BLOCK_MASK];
+        }
+
+        /**
+         * Первая позиция не меньше from, на которой id страницы не меньше target, или size, если такой нет.
+         */
+        public int advance(int from, int target) {
+            if (from >= size) {
+                return from;
+            }
+            int current = from >> BLOCK_SHIFT;
+            if (current == block && buffer[(Math.min(size, (current + 1) << BLOCK_SHIFT) - 1) & BLOCK_MASK] >= target) {
+                int i = from;
+                while (buffer[i & BLOCK_MASK] < target) {
+                    i++;
+                }
+                return i;
+            }
+            int blocks = (size + BLOCK_MASK) >> BLOCK_SHIFT;
+            if (current + 1 < blocks && blockBase(current + 1) <= target) {
+                int low = current + 1;
+                int bound = 1;
+                while (low + bound < blocks && blockBase(low + bound) <= target) {
+                    low += bound;
+                    bound <<= 1;
+                }
+                int high = Math.min(low + bound, blocks);
+                while (high - low > 1) {
+                    int middle = (low + high) >>> 1;
+                    if (blockBase(middle) <= target) {
+                        low = middle;
+                    } else {
+                        high = middle;
+                    }
+                }
+                current = low;
+                from = current << BLOCK_SHIFT;
+            }
+            if (current != block) {
+                load(current);
+            }
+            int end = Math.min(size, (current + 1) << BLOCK_SHIFT);
+            for (int i = from; i < end; i++) {
+                if (buffer[i & BLOCK_MASK] >= target) {
+                    return i;
+                }
+            }
+            return end;
+        }
+
+        private void load(int newBlock) {
+            decode(newBlock, buffer);
+            block = newBlock;
+        }
+    }
+
+    public PostingList without(int pageId) {
+        int index = indexOf(pageId);
+        if (index < 0) {
+            return this;
+        }
+        int[] oldIds = pageIdsArray();
+        byte[][] oldPositions = positionsArray();
+        int[] ids = new int[size - 1];
+        float[] newRates = new float[size - 1];
+        byte[][] newPositions = new byte[size - 1][];
+        System.arraycopy(oldIds, 0, ids, 0, index);
+        System.arraycopy(rates, 0, newRates, 0, index);
+        System.arraycopy(oldPositions, 0, newPositions, 0, index);
+        System.arraycopy(oldIds, index + 1, ids, index, size - index - 1);
+        System.arraycopy(rates, index + 1, newRates, index, size - index - 1);
+        System.arraycopy(oldPositions, index + 1, newPositions, index, size - index - 1);
+        return build(ids, newRates, newPositions, size - 1);
+    }
+
+    /**
+     * Удаляет из списка все страницы, отмеченные в наборе.
+     */
+    public PostingList without(BitSet removedPages) {
+        int[] ids = new int[size];
+        float[] newRates = new float[size];
+        byte[][] newPositions = new byte[size][];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int pageId = pageId(i);
+            if (!removedPages.get(pageId)) {
+                ids[count] = pageId;
+                newPositions[count] = positions(i);
+                newRates[count++] = rates[i];
+            }
+        }
+        return count == size ? this : build(ids, newRates, newPositions, count);
+    }
+
+    /**
+     * Объединяет список с новыми парами, при совпадении id страницы побеждает новое значение.
+     */
+    public PostingList merge(int[] newPageIds, float[] newRates, byte[][] newPositions, int newSize) {
+        int[] ids = Arrays.copyOf(pageIdsArray(), size + newSize);
+        float[] mergedRates = Arrays.copyOf(rates, size + newSize);
+        byte[][] mergedPositions = Arrays.copyOf(positionsArray(), size + newSize);
+        System.arraycopy(newPageIds, 0, ids, size, newSize);
+        System.arraycopy(newRates, 0, mergedRates, size, newSize);
+        System.arraycopy(newPositions, 0, mergedPositions, size, newSize);
+        return of(ids, mergedRates, mergedPositions, size + newSize);
+    }
+
+    public PostingList merge(PostingList other) {
+        return merge(other.pageIdsArray(), other.rates, other.positionsArray(), other.size);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(pageId(i));
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeFloat(rates[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            int start = i == 0 ? 0 : positionEnds[i - 1];
+            int length = positionEnds[i] - start;
+            out.writeInt(length == 0 ? -1 : length);
+            out.write(positionData, start, length);
+        }
+    }
+
+    public static PostingList readFrom(DataInput in) throws IOException {
+        int size = in.readInt();
+        int[] ids = new int[size];
+        float[] rates = new float[size];
+        byte[][] positions = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            ids[i] = in.readInt();
+        }
+        for (int i = 0; i < size; i++) {
+            rates[i] = in.readFloat();
+        }
+        for (int i = 0; i < size; i++) {
+            int length = in.readInt();
+            if (length >= 0) {
+                positions[i] = new byte[length];
+                in.readFully(positions[i]);
+            }
+        }
+        return build(ids, rates, positions, size);
+    }
+
+    public PostingList trim() {
+        if (rates.length == size && tail.length == (size & BLOCK_MASK) && packed.length == packedWords()
+                && blockBases.length == sealedBlocks && positionData.length == positionEnd()) {
+            return this;
+        }
+        return build(pageIdsArray(), rates, positionsArray(), size);
+    }
+
+    public long memoryBytes() {
+        return 64 + 16 + 4L * blockBases.length + 16 + blockWidths.length + 16 + 4L * blockStarts.length
+                + 16 + 8L * packed.length + 16 + 4L * tail.length + 16 + 4L * rates.length
+                + 16 + 4L * positionEnds.length + 16 + positionData.length + 16 + 4L * blockMaxRates.length;
+    }
+
+    /**
+     * Собирает список из произвольно упорядоченных пар при первоначальной загрузке.
+     */
+    public static PostingList of(int[] pageIds, float[] rates, byte[][] positions, int size) {
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = pageIds[i - 1] < pageIds[i];
+        }
+        if (sorted) {
+            return build(pageIds, rates, positions, size);
+        }
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (long) pageIds[i] << 32 | i;
+        }
+        Arrays.sort(order);
+        int[] ids = new int[size];
+        float[] newRates = new float[size];
+        byte[][] newPositions = new byte[size][];
+        int count = 0;
+        for (long item : order) {
+            int id = (int) (item >>> 32);
+            float rate = rates[(int) item];
+            byte[] pagePositions = positions[(int) item];
+            if (count > 0 && ids[count - 1] == id) {
+                newRates[count - 1] = rate;
+                newPositions[count - 1] = pagePositions;
+                continue;
+            }
+            ids[count] = id;
+            newPositions[count] = pagePositions;
+            newRates[count++] = rate;
+        }
+        return build(ids, newRates, newPositions, count);
+    }
+
+    private static PostingList build(int[] pageIds, float[] rates, byte[][] positions, int size) {
+        int[] ends = new int[size];
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += positions[i] == null ? 0 : positions[i].length;
+            ends[i] = total;
+        }
+        byte[] data = new byte[total];
+        for (int i = 0; i < size; i++) {
+            if (positions[i] != null) {
+                System.arraycopy(positions[i], 0, data, ends[i] - positions[i].length, positions[i].length);
+            }
+        }
+        return build(pageIds, rates, ends, data, size);
+    }
+
+    /**
+     * Упаковывает заполненные блоки отсортированных id, остаток оставляет в хвосте.
+     * Все массивы результата точного размера.
+     */
+    private static PostingList build(int[] pageIds, float[] rates, int[] positionEnds, byte[] positionData,
+                                     int size) {
+        int blocks = size >> BLOCK_SHIFT;
+        int[] bases = new int[blocks];
+        byte[] widths = new byte[blocks];
+        int[] starts = new int[blocks];
+        int words = 0;
+        for (int block = 0; block < blocks; block++) {
+            int width = width(pageIds, block << BLOCK_SHIFT);
+            bases[block] = pageIds[block << BLOCK_SHIFT];
+            widths[block] = (byte) width;
+            starts[block] = words;
+            words += 2 * width;
+        }
+        long[] packed = new long[words];
+        for (int block = 0; block < blocks; block++) {
+            pack(pageIds, block << BLOCK_SHIFT, widths[block], packed, starts[block]);
+        }
+        int[] tail = Arrays.copyOfRange(pageIds, blocks << BLOCK_SHIFT, size);
+        float[] blockMaxRates = new float[(size + BLOCK_SIZE - 1) >> BLOCK_SHIFT];
+        float max = 0;
+        for (int i = 0; i < size; i++) {
+            int block = i >> BLOCK_SHIFT;
+            blockMaxRates[block] = Math.max(blockMaxRates[block], rates[i]);
+            max = Math.max(max, rates[i]);
+        }
+        return new PostingList(bases, widths, starts, packed, blocks, tail, Arrays.copyOf(rates, size),
+                Arrays.copyOf(positionEnds, size), positionData, size, blockMaxRates, max);
+    }
+
+    /**
+     * Число бит, достаточное для разности между любым id блока и первым id блока.
+     */
+    private static int width(int[] pageIds, int from) {
+        return 32 - Integer.numberOfLeadingZeros(pageIds[from + BLOCK_MASK] - pageIds[from]);
+    }
+
+    /**
+     * Записывает разности id блока с первым id по width бит, блок занимает ровно 2 * width слов.
+     */
+    private static void pack(int[] pageIds, int from, int width, long[] packed, int start) {
+        long[] words = new long[2 * width];
+        int base = pageIds[from];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            long value = pageIds[from + i] - base;
+            long bit = (long) i * width;
+            int word = (int) (bit >>> 6);
+            int shift = (int) bit & 63;
+            words[word] |= value << shift;
+            if (shift + width > 64) {
+                words[word + 1] |= value >>> (64 - shift);
+            }
+        }
+        System.arraycopy(words, 0, packed, start, words.length);
+    }
+
+    private static int grow(int length, int max) {
+        return (int) Math.min(max, Math.max(4, length + (length >> 1) + 1L));
+    }
+
+    private int packedWords() {
+        return sealedBlocks == 0 ? 0 : blockStarts[sealedBlocks - 1] + 2 * blockWidths[sealedBlocks - 1];
+    }
+
+    private int positionEnd() {
+        return size == 0 ? 0 : positionEnds[size - 1];
+    }
+
+    private int[] pageIdsArray() {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = pageId(i);
+        }
+        return ids;
+    }
+
+    private byte[][] positionsArray() {
+        byte[][] result = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            result[i] = positions(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+package searchengine.index;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Ранжированное пересечение списков страниц с отсечением по схеме MaxScore.
+ * Для каждой леммы известна верхняя граница её вклада в BM25, поэтому страница
+ * перестаёт оцениваться, как только даже максимальный вклад оставшихся лемм
+ * не поднимет её выше порога кучи. Если точное число найденных страниц не нужно,
+ * целые блоки самого короткого списка пропускаются по их максимальному rate.
+ * Если заданы фразы или поправка за близость, оценка полностью совпавшей страницы
+ * уточняется по позициям лемм, а верхние границы умножаются на наибольшую поправку.
+ * Каждые {@link #DEADLINE_CHECK_INTERVAL} шагов проверяется срок запроса.
+ */
+public final class RankedConjunction {
+
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    private RankedConjunction() {
+    }
+
+    /**
+     * @param lists       списки страниц лемм запроса
+     * @param idf         idf каждой леммы в том же порядке
+     * @param pageLengths длины страниц по id
+     * @param exactCount  false разрешает пропуск блоков, тогда число найденных страниц — нижняя граница
+     * @param scorer      проверка фраз и поправка за близость, леммы нумеруются как в lists
+     * @param excluded    страницы, которые не должны попасть в результат
+     */
+    public static void collect(PostingList[] lists, float[] idf, float[] pageLengths, float averageLength,
+                               Bm25 bm25, boolean exactCount, PositionScorer scorer, RoaringBitmap excluded,
+                               Deadline deadline, TopKCollector collector) {
+        Conjunction conjunction = new Conjunction(lists);
+        int count = conjunction.listCount();
+        if (count == 0) {
+            return;
+        }
+        float[] weights = new float[count];
+        float[] upper = new float[count];
+        for (int i = 0; i < count; i++) {
+            weights[i] = idf[conjunction.originalIndex(i)];
+            upper[i] = weights[i] * bm25.maxScore(conjunction.list(i).maxRate());
+        }
+        float boost = scorer.isEnabled() ? scorer.maxBoost() : 1;
+        float[] remaining = new float[count + 1];
+        for (int i = count - 1; i >= 0; i--) {
+            remaining[i] = remaining[i + 1] + upper[i];
+        }
+        byte[][] termPositions = new byte[count][];
+        PostingList lead = conjunction.list(0);
+        int steps = 0;
+        while (true) {
+            if (++steps % DEADLINE_CHECK_INTERVAL == 0 && deadline.expired()) {
+                collector.markPartial();
+                return;
+            }
+            float threshold = collector.threshold();
+            if (!exactCount && threshold != Float.NEGATIVE_INFINITY) {
+                int position = conjunction.leadPosition() + 1;
+                if (position >= lead.size()) {
+                    return;
+                }
+                float blockBound = (weights[0] * bm25.maxScore(lead.blockMaxRate(position)) + remaining[1]) * boost;
+                if (blockBound <= threshold) {
+                    conjunction.skipLeadTo(lead.blockEnd(position));
+                    continue;
+                }
+            }
+            int pageId = conjunction.next();
+            if (pageId == -1) {
+                return;
+            }
+            if (excluded.contains(pageId)) {
+                continue;
+            }
+            if (remaining[0] * boost <= threshold) {
+                countIfMatches(conjunction, scorer, termPositions, collector);
+                continue;
+            }
+            float length = pageId < pageLengths.length ? pageLengths[pageId] : 0;
+            float score = 0;
+            int i = 0;
+            for (; i < count; i++) {
+                score += weights[i] * bm25.score(conjunction.rate(i), length, averageLength);
+                if ((score + remaining[i + 1]) * boost <= threshold) {
+                    break;
+                }
+            }
+            if (i < count) {
+                countIfMatches(conjunction, scorer, termPositions, collector);
+                continue;
+            }
+            if (scorer.isEnabled()) {
+                score = scorer.score(fillPositions(conjunction, termPositions), score);
+                if (score < 0) {
+                    continue;
+                }
+            }
+            collector.collect(pageId, score);
+        }
+    }
+
+    private static void countIfMatches(Conjunction conjunction, PositionScorer scorer, byte[][] termPositions,
+                                       TopKCollector collector) {
+        if (!scorer.hasPhrases() || scorer.score(fillPositions(conjunction, termPositions), 0) >= 0) {
+            collector.count();
+        }
+    }
+
+    private static byte[][] fillPositions(Conjunction conjunction, byte[][] termPositions) {
+        for (int i = 0; i < termPositions.length; i++) {
+            termPositions[conjunction.originalIndex(i)] = conjunction.pagePositions(i);
+        }
+        return termPositions;
+    }
+}
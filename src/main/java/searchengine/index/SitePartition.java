@@ -0,0 +1,107 @@
+package searchengine.index;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Списки страниц одного сайта. Размер списка леммы — её документная частота
+ * внутри сайта, вместе с числом страниц и суммарной длиной страниц сайта
+ * это вся статистика, нужная BM25 при поиске по одному сайту.
+ */
+public final class SitePartition {
+
+    private final Map<Integer, PostingList> postings = new ConcurrentHashMap<>();
+    private final AtomicInteger pageCount = new AtomicInteger();
+    private final DoubleAdder totalLength = new DoubleAdder();
+
+    public PostingList getPostings(int lemmaId) {
+        return postings.getOrDefault(lemmaId, PostingList.EMPTY);
+    }
+
+    public Map<Integer, PostingList> getPostings() {
+        return postings;
+    }
+
+    /**
+     * Добавляет или обновляет страницу в списке леммы и возвращает прежний rate или 0.
+     */
+    public float add(int lemmaId, int pageId, float rate, byte[] positions) {
+        float[] previous = new float[1];
+        postings.compute(lemmaId, (id, list) -> {
+            if (list == null) {
+                return PostingList.EMPTY.with(pageId, rate, positions);
+            }
+            int index = list.indexOf(pageId);
+            previous[0] = index >= 0 ? list.rate(index) : 0;
+            return list.with(pageId, rate, positions);
+        });
+        totalLength.add(rate - previous[0]);
+        return previous[0];
+    }
+
+    /**
+     * Удаляет страницу из списка леммы и возвращает её rate или 0, если страницы там не было.
+     */
+    public float remove(int lemmaId, int pageId) {
+        float[] removed = new float[1];
+        postings.computeIfPresent(lemmaId, (id, list) -> {
+            int index = list.indexOf(pageId);
+            if (index < 0) {
+                return list;
+            }
+            removed[0] = list.rate(index);
+            PostingList result = list.without(pageId);
+            return result.size() == 0 ? null : result;
+        });
+        totalLength.add(-removed[0]);
+        return removed[0];
+    }
+
+    /**
+     * Сливает загруженные из базы записи со списком леммы. Суммарная длина страниц
+     * после этого не согласована и пересчитывается вызовом {@link #recountLength()}.
+     */
+    public void merge(int lemmaId, PostingList added) {
+        postings.merge(lemmaId, added, PostingList::merge);
+    }
+
+    public void removePages(BitSet removedPages) {
+        postings.replaceAll((lemmaId, list) -> list.without(removedPages));
+        postings.values().removeIf(list -> list.size() == 0);
+        recountLength();
+    }
+
+    public void recountLength() {
+        double length = 0;
+        for (PostingList list : postings.values()) {
+            for (int i = 0; i < list.size(); i++) {
+                length += list.rate(i);
+            }
+        }
+        totalLength.reset();
+        totalLength.add(length);
+    }
+
+    public int getPageCount() {
+        return pageCount.get();
+    }
+
+    public void addPages(int delta) {
+        pageCount.addAndGet(delta);
+    }
+
+    public double getTotalLength() {
+        return totalLength.sum();
+    }
+
+    public long getPostingsCount() {
+        long count = 0;
+        for (PostingList list : postings.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+}
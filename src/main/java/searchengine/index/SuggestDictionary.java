@@ -0,0 +1,91 @@
+package searchengine.index;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+import searchengine.dto.objects.SuggestionDto;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Неизменяемый словарь подсказок: конечный преобразователь (FST) из нормализованной
+ * строки в число, в старших 32 битах которого хранится дополнение веса до
+ * Integer.MAX_VALUE, а в младших — номер строки для показа. Поэтому кратчайшие пути
+ * от узла префикса — это продолжения с наибольшим весом.
+ */
+public final class SuggestDictionary {
+
+    private static final long MAX_WEIGHT = Integer.MAX_VALUE;
+
+    private final FST<Long> fst;
+    private final String[] texts;
+    private final long[] weights;
+
+    private SuggestDictionary(FST<Long> fst, String[] texts, long[] weights) {
+        this.fst = fst;
+        this.texts = texts;
+        this.weights = weights;
+    }
+
+    /**
+     * @param entries нормализованные строки в порядке байтов UTF-8 и их вес вместе с текстом для показа
+     */
+    public static SuggestDictionary build(SortedMap<BytesRef, Map.Entry<String, Long>> entries) throws IOException {
+        Builder<Long> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+        IntsRefBuilder scratch = new IntsRefBuilder();
+        String[] texts = new String[entries.size()];
+        long[] weights = new long[entries.size()];
+        int ordinal = 0;
+        for (Map.Entry<BytesRef, Map.Entry<String, Long>> entry : entries.entrySet()) {
+            long weight = Math.max(0, Math.min(MAX_WEIGHT, entry.getValue().getValue()));
+            texts[ordinal] = entry.getValue().getKey();
+            weights[ordinal] = weight;
+            builder.add(Util.toIntsRef(entry.getKey(), scratch), (MAX_WEIGHT - weight) << 32 | ordinal);
+            ordinal++;
+        }
+        return new SuggestDictionary(builder.finish(), texts, weights);
+    }
+
+    public int size() {
+        return texts.length;
+    }
+
+    public long ramBytesUsed() {
+        long bytes = fst == null ? 0 : fst.ramBytesUsed();
+        for (String text : texts) {
+            bytes += 40 + 2L * text.length();
+        }
+        return bytes + 8L * weights.length;
+    }
+
+    /**
+     * До limit строк, начинающихся с prefix, в порядке убывания веса.
+     */
+    public List<SuggestionDto> lookup(String prefix, int limit) throws IOException {
+        List<SuggestionDto> suggestions = new ArrayList<>();
+        if (fst == null || limit <= 0) {
+            return suggestions;
+        }
+        BytesRef bytes = new BytesRef(prefix);
+        FST.BytesReader reader = fst.getBytesReader();
+        FST.Arc<Long> arc = fst.getFirstArc(new FST.Arc<>());
+        Long output = fst.outputs.getNoOutput();
+        for (int i = 0; i < bytes.length; i++) {
+            if (fst.findTargetArc(bytes.bytes[bytes.offset + i] & 0xFF, arc, arc, reader) == null) {
+                return suggestions;
+            }
+            output = fst.outputs.add(output, arc.output());
+        }
+        for (Util.Result<Long> result : Util.shortestPaths(fst, arc, output, Long::compare, limit, true)) {
+            int ordinal = (int) (result.output & 0xFFFFFFFFL);
+            suggestions.add(new SuggestionDto(texts[ordinal], weights[ordinal]));
+        }
+        return suggestions;
+    }
+}
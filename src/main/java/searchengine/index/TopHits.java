@@ -0,0 +1,85 @@
+package searchengine.index;
+
+import java.util.List;
+
+/**
+ * Отобранные страницы с наибольшей оценкой в порядке убывания, общее число найденных
+ * страниц и максимальная оценка среди всех найденных, а не только отобранных.
+ * Признак partial означает, что поиск остановлен по сроку и просмотрены не все страницы.
+ */
+public final class TopHits {
+
+    public static final TopHits EMPTY = new TopHits(new int[0], new float[0], 0, 0f);
+
+    private final int[] pageIds;
+    private final float[] scores;
+    private final int totalHits;
+    private final float maxScore;
+    private final boolean partial;
+
+    public TopHits(int[] pageIds, float[] scores, int totalHits, float maxScore) {
+        this(pageIds, scores, totalHits, maxScore, false);
+    }
+
+    public TopHits(int[] pageIds, float[] scores, int totalHits, float maxScore, boolean partial) {
+        this.pageIds = pageIds;
+        this.scores = scores;
+        this.totalHits = totalHits;
+        this.maxScore = maxScore;
+        this.partial = partial;
+    }
+
+    public int size() {
+        return pageIds.length;
+    }
+
+    public int pageId(int index) {
+        return pageIds[index];
+    }
+
+    public float score(int index) {
+        return scores[index];
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public float getMaxScore() {
+        return maxScore;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * Те же страницы с числом найденных страниц, посчитанным отдельно.
+     */
+    public TopHits withTotalHits(int total) {
+        return new TopHits(pageIds, scores, total, maxScore, partial);
+    }
+
+    /**
+     * Сливает результаты, найденные независимо (например, по разным сайтам),
+     * в k лучших с общим числом найденных страниц и общей максимальной оценкой.
+     * Результат неполный, если неполна любая из частей или часть не успела выполниться.
+     */
+    public static TopHits merge(List<TopHits> parts, int k, boolean partial) {
+        TopKCollector collector = new TopKCollector(k);
+        int totalHits = 0;
+        float maxScore = 0;
+        for (TopHits part : parts) {
+            partial |= part.partial;
+            if (part.totalHits > 0) {
+                maxScore = totalHits == 0 ? part.maxScore : Math.max(maxScore, part.maxScore);
+                totalHits += part.totalHits;
+            }
+            for (int i = 0; i < part.size(); i++) {
+                collector.collect(part.pageIds[i], part.scores[i]);
+            }
+        }
+        TopHits top = collector.topHits();
+        return new TopHits(top.pageIds, top.scores, totalHits, maxScore, partial);
+    }
+}
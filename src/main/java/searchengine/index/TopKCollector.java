@@ -0,0 +1,133 @@
+package searchengine.index;
+
+import java.util.Arrays;
+
+/**
+ * Отбирает k страниц с наибольшей оценкой с помощью min-кучи не больше k элементов
+ * на примитивных массивах. Массивы растут по мере поступления страниц, поэтому память
+ * занимает min(k, число найденных страниц), а не k. Остальные страницы только подсчитываются.
+ * При равных оценках выше идёт страница с меньшим id.
+ */
+public final class TopKCollector {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int k;
+    private int[] pageIds;
+    private float[] scores;
+    private int size;
+    private int totalHits;
+    private float maxScore;
+    private boolean partial;
+
+    public TopKCollector(int k) {
+        this.k = Math.max(0, k);
+        pageIds = new int[Math.min(this.k, INITIAL_CAPACITY)];
+        scores = new float[pageIds.length];
+    }
+
+    public void collect(int pageId, float score) {
+        totalHits++;
+        if (totalHits == 1 || score > maxScore) {
+            maxScore = score;
+        }
+        if (k == 0) {
+            return;
+        }
+        if (size < k) {
+            if (size == pageIds.length) {
+                grow();
+            }
+            pageIds[size] = pageId;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (isBetter(pageId, score, 0)) {
+            pageIds[0] = pageId;
+            scores[0] = score;
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Отмечает, что сбор остановлен по сроку и просмотрены не все страницы.
+     */
+    public void markPartial() {
+        partial = true;
+    }
+
+    /**
+     * Учитывает найденную страницу, которая заведомо не попадает в результат.
+     */
+    public void count() {
+        totalHits++;
+    }
+
+    /**
+     * Минимальная оценка, которую должна превысить страница, чтобы попасть в результат,
+     * или отрицательная бесконечность, пока куча не заполнена.
+     */
+    public float threshold() {
+        return size < k || size == 0 ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    public TopHits topHits() {
+        int count = size;
+        for (int end = count - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        int[] ids = new int[count];
+        float[] values = new float[count];
+        System.arraycopy(pageIds, 0, ids, 0, count);
+        System.arraycopy(scores, 0, values, 0, count);
+        size = 0;
+        return new TopHits(ids, values, totalHits, maxScore, partial);
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min(k, Math.max(INITIAL_CAPACITY, 2L * pageIds.length));
+        pageIds = Arrays.copyOf(pageIds, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+    }
+
+    private boolean isBetter(int pageId, float score, int index) {
+        return score > scores[index] || score == scores[index] && pageId < pageIds[index];
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isBetter(pageIds[parent], scores[parent], index)) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index, int end) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= end) {
+                return;
+            }
+            if (child + 1 < end && isBetter(pageIds[child], scores[child], child + 1)) {
+                child++;
+            }
+            if (!isBetter(pageIds[index], scores[index], child)) {
+                return;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = pageIds[a];
+        pageIds[a] = pageIds[b];
+        pageIds[b] = id;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -0,0 +1,16 @@
+package searchengine.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Tokenizer;
+
+/**
+ * Анализатор, который приводит текст к тем же леммам, что записываются в таблицу lemma.
+ */
+public class LemmaAnalyzer extends Analyzer {
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer tokenizer = new WordTokenizer();
+        return new TokenStreamComponents(tokenizer, new LemmaFilter(tokenizer));
+    }
+}
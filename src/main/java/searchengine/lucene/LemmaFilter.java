@@ -0,0 +1,37 @@
+package searchengine.lucene;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import searchengine.services.LemmaExtractor;
+import java.io.IOException;
+
+/**
+ * Заменяет каждое слово его леммой. Слова короче двух букв, стоп-слова и слова
+ * без нормальной формы пропускаются с сохранением позиций.
+ */
+public final class LemmaFilter extends TokenFilter {
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute positionAttribute = addAttribute(PositionIncrementAttribute.class);
+
+    public LemmaFilter(TokenStream input) {
+        super(input);
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        int skipped = 0;
+        while (input.incrementToken()) {
+            String lemma = LemmaExtractor.toLemma(termAttribute.toString());
+            if (lemma != null) {
+                termAttribute.setEmpty().append(lemma);
+                positionAttribute.setPositionIncrement(positionAttribute.getPositionIncrement() + skipped);
+                return true;
+            }
+            skipped += positionAttribute.getPositionIncrement();
+        }
+        return false;
+    }
+}
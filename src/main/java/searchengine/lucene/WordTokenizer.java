@@ -0,0 +1,73 @@
+package searchengine.lucene;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import java.io.IOException;
+
+/**
+ * Делит текст на непрерывные последовательности латинских и кириллических букв,
+ * так же как LemmaExtractor.WORD_TYPE_REGEX.
+ */
+public final class WordTokenizer extends Tokenizer {
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAttribute = addAttribute(OffsetAttribute.class);
+    private final char[] buffer = new char[4096];
+    private int bufferLength;
+    private int bufferIndex;
+    private int offset;
+
+    public static boolean isWordChar(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+                || c >= 'а' && c <= 'я' || c >= 'А' && c <= 'Я' || c == 'ё' || c == 'Ё';
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        clearAttributes();
+        int length = 0;
+        int start = -1;
+        while (true) {
+            if (bufferIndex >= bufferLength) {
+                bufferLength = input.read(buffer);
+                bufferIndex = 0;
+                if (bufferLength <= 0) {
+                    bufferLength = 0;
+                    break;
+                }
+            }
+            char c = buffer[bufferIndex++];
+            offset++;
+            if (isWordChar(c)) {
+                if (length == 0) {
+                    start = offset - 1;
+                }
+                termAttribute.append(c);
+                length++;
+            } else if (length > 0) {
+                break;
+            }
+        }
+        if (length == 0) {
+            return false;
+        }
+        offsetAttribute.setOffset(correctOffset(start), correctOffset(start + length));
+        return true;
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        int finalOffset = correctOffset(offset);
+        offsetAttribute.setOffset(finalOffset, finalOffset);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        bufferLength = 0;
+        bufferIndex = 0;
+        offset = 0;
+    }
+}
@@ -6,7 +6,7 @@ import lombok.Setter;
 import javax.persistence.*;
 
 @Entity
-@Table(name = "search_index")
+@Table(name = "search_index", indexes = {@Index(name = "lemma_page_index", columnList = "lemma_id, page_id, rate")})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -27,4 +27,7 @@ public class IndexEntity {
 
     @Column(name = "rate", nullable = false)
     private float rate;
+
+    @Column(columnDefinition = "BLOB", name = "positions")
+    private byte[] positions;
 }
@@ -8,7 +8,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "lemma")
+@Table(name = "lemma", indexes = {@Index(name = "lemma_index", columnList = "lemma")})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -0,0 +1,124 @@
+package searchengine.model;
+
+import com.github.luben.zstd.Zstd;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.config.StorageSettings;
+import searchengine.config.StorageSettings.Compression;
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Хранит содержимое страницы в сжатом виде. Каждое значение начинается с заголовка:
+ * нулевой байт, код алгоритма и длина исходного текста в байтах. Значения без
+ * заголовка считаются несжатым текстом, записанным до перехода на сжатие.
+ */
+@Component
+@Converter
+@RequiredArgsConstructor
+public class PageContentConverter implements AttributeConverter<String, byte[]> {
+
+    private static final byte MARKER = 0;
+    private static final int HEADER_LENGTH = 6;
+
+    private final StorageSettings storageSettings;
+
+    @Override
+    public byte[] convertToDatabaseColumn(String content) {
+        if (content == null) {
+            return null;
+        }
+        return encode(content, storageSettings.getCompression(), storageSettings.getCompressionLevel());
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        return decode(data);
+    }
+
+    public static boolean isEncoded(byte[] data) {
+        return data.length >= HEADER_LENGTH && data[0] == MARKER;
+    }
+
+    public static byte[] encode(String content, Compression compression, int level) {
+        byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+        byte[] body = switch (compression) {
+            case NONE -> raw;
+            case DEFLATE -> deflate(raw, level);
+            case ZSTD -> Zstd.compress(raw, level);
+        };
+        return ByteBuffer.allocate(HEADER_LENGTH + body.length)
+                .put(MARKER)
+                .put(compression.getId())
+                .putInt(raw.length)
+                .put(body)
+                .array();
+    }
+
+    public static String decode(byte[] data) {
+        if (!isEncoded(data)) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+        Compression compression = Compression.byId(data[1]);
+        int length = ByteBuffer.wrap(data, 2, 4).getInt();
+        byte[] raw = switch (compression) {
+            case NONE -> copyBody(data);
+            case DEFLATE -> inflate(data, length);
+            case ZSTD -> Zstd.decompress(copyBody(data), length);
+        };
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] copyBody(byte[] data) {
+        byte[] body = new byte[data.length - HEADER_LENGTH];
+        System.arraycopy(data, HEADER_LENGTH, body, 0, body.length);
+        return body;
+    }
+
+    private static byte[] deflate(byte[] raw, int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+            byte[] raw = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int count = inflater.inflate(raw, offset, length - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("unexpected end of stream");
+                }
+                offset += count;
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Повреждено содержимое страницы", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
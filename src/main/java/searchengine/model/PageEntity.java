@@ -29,9 +29,17 @@ public class PageEntity {
     @Column(name = "code", nullable = false)
     private Integer code;
 
-    @Column(columnDefinition = "MEDIUMTEXT", name = "content", nullable = false)
+    @Convert(converter = PageContentConverter.class)
+    @Column(columnDefinition = "MEDIUMBLOB", name = "content", nullable = false)
     private String content;
 
+    @Column(columnDefinition = "TEXT", name = "title")
+    private String title;
+
+    @Convert(converter = PageContentConverter.class)
+    @Column(columnDefinition = "MEDIUMBLOB", name = "visible_text")
+    private String text;
+
     @OneToMany(mappedBy = "pageEntity", cascade = CascadeType.ALL)
     private Set<IndexEntity> indexPageList = new HashSet<>();
 }
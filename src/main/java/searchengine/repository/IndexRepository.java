@@ -1,7 +1,55 @@
 package searchengine.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import searchengine.model.IndexEntity;
+import java.util.Collection;
+import java.util.List;
 
 public interface IndexRepository extends JpaRepository<IndexEntity, Integer> {
+
+    @Query("select i.id, i.lemmaEntity.id, i.pageEntity.id, i.rate, i.positions from IndexEntity i where i.id > :id order by i.id")
+    List<Object[]> findPostingsAfter(@Param("id") int id, Pageable pageable);
+
+    /**
+     * Первые limit страниц, содержащих все леммы lemmas и ни одной другой леммы из terms,
+     * по убыванию суммы rank: id страницы, сумма rank и общее число таких страниц.
+     * Пустой url означает все сайты.
+     */
+    @Query(value = "select i.page_id, sum(i.rate) as score, count(*) over () " +
+            "from lemma l join search_index i on i.lemma_id = l.id " +
+            "join page p on p.id = i.page_id join site s on s.id = p.site_id " +
+            "where l.lemma in (:terms) and (:url = '' or s.url = :url) " +
+            "group by i.page_id " +
+            "having count(distinct l.lemma) = :n " +
+            "and count(distinct case when l.lemma in (:lemmas) then l.lemma end) = :n " +
+            "order by score desc, i.page_id limit :limit", nativeQuery = true)
+    List<Object[]> findTopPages(@Param("lemmas") Collection<String> lemmas, @Param("terms") Collection<String> terms,
+                                @Param("n") int n, @Param("url") String url, @Param("limit") int limit);
+
+    /**
+     * Все страницы, содержащие все леммы lemmas и ни одной другой леммы из terms,
+     * по убыванию суммы rank: id страницы и сумма rank. Кандидаты для проверки фраз по позициям.
+     */
+    @Query(value = "select i.page_id, sum(i.rate) as score " +
+            "from lemma l join search_index i on i.lemma_id = l.id " +
+            "join page p on p.id = i.page_id join site s on s.id = p.site_id " +
+            "where l.lemma in (:terms) and (:url = '' or s.url = :url) " +
+            "group by i.page_id " +
+            "having count(distinct l.lemma) = :n " +
+            "and count(distinct case when l.lemma in (:lemmas) then l.lemma end) = :n " +
+            "order by score desc, i.page_id", nativeQuery = true)
+    List<Object[]> findMatchingPages(@Param("lemmas") Collection<String> lemmas,
+                                     @Param("terms") Collection<String> terms,
+                                     @Param("n") int n, @Param("url") String url);
+
+    @Query("select i from IndexEntity i join fetch i.lemmaEntity where i.pageEntity.id = :pageId")
+    List<IndexEntity> findByPageId(@Param("pageId") int pageId);
+
+    @Query("select i.pageEntity.id, i.lemmaEntity.lemma, i.positions from IndexEntity i " +
+            "where i.pageEntity.id in :pageIds and i.lemmaEntity.lemma in :lemmas")
+    List<Object[]> findPositions(@Param("pageIds") Collection<Integer> pageIds,
+                                 @Param("lemmas") Collection<String> lemmas);
 }
@@ -1,8 +1,22 @@
 package searchengine.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import searchengine.model.LemmaEntity;
+import java.util.Collection;
+import java.util.List;
 
 public interface LemmaRepository extends JpaRepository<LemmaEntity, Integer> {
 
+    @Query("select l.id, l.lemma from LemmaEntity l where l.id > :id")
+    List<Object[]> findLemmaNamesAfter(@Param("id") int id);
+
+    @Query("select l.lemma, sum(l.frequency) from LemmaEntity l group by l.lemma")
+    List<Object[]> findLemmaFrequencies();
+
+    @Query("select l.lemma, sum(l.frequency) from LemmaEntity l where l.lemma in :lemmas group by l.lemma")
+    List<Object[]> findLemmaFrequencies(@Param("lemmas") Collection<String> lemmas);
+
+    List<LemmaEntity> findByLemmaIn(Collection<String> lemmas);
 }
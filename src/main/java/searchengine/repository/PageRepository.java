@@ -1,7 +1,41 @@
 package searchengine.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.dto.objects.PageSearchView;
 import searchengine.model.PageEntity;
+import searchengine.model.SiteEntity;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 public interface PageRepository extends JpaRepository<PageEntity, Integer> {
+
+    Optional<PageEntity> findBySiteAndPath(SiteEntity site, String path);
+
+    @Query("select p.id, p.site.id, p.site.url from PageEntity p where p.id > :id")
+    List<Object[]> findPageSitesAfter(@Param("id") int id);
+
+    @Query("select p.id from PageEntity p")
+    List<Integer> findAllPageIds();
+
+    @Query("select p.id as id, p.path as path, s.url as siteUrl, s.name as siteName, p.title as title, " +
+            "p.text as text from PageEntity p join p.site s where p.id in :ids")
+    List<PageSearchView> findSearchViews(@Param("ids") Collection<Integer> ids);
+
+    @Query("select p.title, count(p) from PageEntity p where p.title is not null and p.title <> '' group by p.title")
+    List<Object[]> findTitleCounts();
+
+    /**
+     * Записывает заголовок и видимый текст страницы, если текст ещё не заполнен.
+     * Содержимое страницы не перезаписывается. text передаётся уже в формате колонки.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "update page set title = :title, visible_text = :text where id = :id and visible_text is null",
+            nativeQuery = true)
+    int backfillText(@Param("id") int id, @Param("title") String title, @Param("text") byte[] text);
 }
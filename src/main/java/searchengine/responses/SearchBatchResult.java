@@ -0,0 +1,13 @@
+package searchengine.responses;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class SearchBatchResult {
+    private boolean result;
+    private List<SearchResult> results;
+}
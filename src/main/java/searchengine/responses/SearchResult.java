@@ -1,5 +1,6 @@
 package searchengine.responses;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import searchengine.dto.objects.SearchDataDto;
 
@@ -10,5 +11,8 @@ public class SearchResult {
     private boolean result;
     private Integer count;
     private List<SearchDataDto> data;
+    private boolean partial;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String error;
 }
 
@@ -0,0 +1,74 @@
+package searchengine.responses;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import searchengine.dto.objects.SearchDataDto;
+import searchengine.services.SearchListener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Пишет события поиска построчно в формате NDJSON: count, page, snippet, затем done
+ * (с признаком partial) или error. После каждой строки поток сбрасывается, чтобы клиент получил её сразу.
+ */
+@RequiredArgsConstructor
+public class SearchStreamWriter implements SearchListener {
+
+    private final OutputStream out;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public void onCount(int count) {
+        Map<String, Object> event = event("count");
+        event.put("count", count);
+        write(event);
+    }
+
+    @Override
+    public void onPage(int index, SearchDataDto page) {
+        Map<String, Object> event = event("page");
+        event.put("index", index);
+        event.put("page", page);
+        write(event);
+    }
+
+    @Override
+    public void onSnippet(int index, String snippet) {
+        Map<String, Object> event = event("snippet");
+        event.put("index", index);
+        event.put("snippet", snippet);
+        write(event);
+    }
+
+    public void done(boolean partial) {
+        Map<String, Object> event = event("done");
+        event.put("partial", partial);
+        write(event);
+    }
+
+    public void error(String message) {
+        Map<String, Object> event = event("error");
+        event.put("error", message);
+        write(event);
+    }
+
+    private static Map<String, Object> event(String type) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", type);
+        return event;
+    }
+
+    private void write(Map<String, Object> event) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(event));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
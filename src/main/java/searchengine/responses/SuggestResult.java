@@ -0,0 +1,14 @@
+package searchengine.responses;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import searchengine.dto.objects.SuggestionDto;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class SuggestResult {
+    private boolean result;
+    private List<SuggestionDto> data;
+}
@@ -0,0 +1,63 @@
+package searchengine.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import searchengine.config.AdmissionSettings;
+import searchengine.dto.statistics.AdmissionStatistics;
+import java.util.List;
+
+/**
+ * Допуск запросов к поиску и индексации. Поисковые запросы проходят через адаптивный предел
+ * с короткой очередью и при перегрузке отклоняются сразу. Запись результатов обхода в базу
+ * ограничена отдельным постоянным пределом, поэтому идущая индексация не может занять
+ * все соединения с базой и вытеснить поиск.
+ */
+@Service
+@Slf4j
+public class AdmissionService {
+
+    private final ConcurrencyLimiter search;
+    private final ConcurrencyLimiter indexing;
+
+    public AdmissionService(AdmissionSettings settings) {
+        if (settings.isEnabled()) {
+            search = new ConcurrencyLimiter("search", settings.getSearchInitialLimit(),
+                    settings.getSearchMinLimit(), settings.getSearchMaxLimit(),
+                    settings.getSearchQueueSize(), settings.getSearchQueueTimeoutMs());
+            indexing = ConcurrencyLimiter.fixed("indexing", settings.getIndexingLimit());
+        } else {
+            search = ConcurrencyLimiter.fixed("search", Integer.MAX_VALUE);
+            indexing = ConcurrencyLimiter.fixed("indexing", Integer.MAX_VALUE);
+        }
+        log.info("Допуск запросов: поиск {}..{}, очередь {}, индексация {}", settings.getSearchMinLimit(),
+                settings.getSearchMaxLimit(), settings.getSearchQueueSize(), settings.getIndexingLimit());
+    }
+
+    /**
+     * Разрешение на поисковый запрос; при перегрузке бросает OverloadedException.
+     */
+    public ConcurrencyLimiter.Permit search() {
+        return search.acquire();
+    }
+
+    /**
+     * Разрешение на запись страницы в индекс; ожидает, пока освободится место.
+     */
+    public ConcurrencyLimiter.Permit indexing() {
+        return indexing.acquire();
+    }
+
+    public List<AdmissionStatistics> getStatistics() {
+        return List.of(toStatistics("search", search), toStatistics("indexing", indexing));
+    }
+
+    private AdmissionStatistics toStatistics(String name, ConcurrencyLimiter limiter) {
+        AdmissionStatistics statistics = new AdmissionStatistics();
+        statistics.setName(name);
+        statistics.setLimit(limiter.getLimit());
+        statistics.setInFlight(limiter.getInFlight());
+        statistics.setWaiting(limiter.getWaiting());
+        statistics.setRejected(limiter.getRejected());
+        return statistics;
+    }
+}
@@ -0,0 +1,164 @@
+package searchengine.services;
+
+import searchengine.responses.ApplicationErrorException;
+import searchengine.responses.OverloadedException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ограничение числа одновременно выполняемых запросов с очередью ожидания.
+ * Если minLimit меньше maxLimit, предел подстраивается по времени выполнения, как Gradient2:
+ * пока время запроса не выше долгосрочного среднего, предел растёт на корень из себя,
+ * а при росте времени уменьшается пропорционально отношению среднего к текущему.
+ * Пока занято меньше половины предела, он не растёт.
+ * Запрос, которому не хватило места в очереди или который не дождался своей очереди,
+ * сразу отклоняется с оценкой, через сколько секунд стоит повторить попытку.
+ */
+public final class ConcurrencyLimiter {
+
+    private static final double SMOOTHING = 0.2;
+    private static final double LONG_RTT_WEIGHT = 0.01;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueCapacity;
+    private final long queueTimeoutNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final AtomicLong rejected = new AtomicLong();
+    private double limit;
+    private double longRttNanos;
+    private int inFlight;
+    private int waiting;
+
+    /**
+     * @param queueTimeoutMillis неположительное значение — ждать в очереди без ограничения времени
+     */
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                              int queueCapacity, long queueTimeoutMillis) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+    }
+
+    /**
+     * Постоянный предел без подстройки и очередь без ограничений.
+     */
+    public static ConcurrencyLimiter fixed(String name, int limit) {
+        return new ConcurrencyLimiter(name, limit, limit, limit, Integer.MAX_VALUE, 0);
+    }
+
+    public Permit acquire() {
+        lock.lock();
+        try {
+            if (waiting == 0 && inFlight < (int) limit) {
+                return admit();
+            }
+            if (waiting >= queueCapacity) {
+                throw reject();
+            }
+            waiting++;
+            try {
+                long nanos = queueTimeoutNanos;
+                while (inFlight >= (int) limit) {
+                    if (queueTimeoutNanos <= 0) {
+                        released.await();
+                    } else if (nanos <= 0) {
+                        throw reject();
+                    } else {
+                        nanos = released.awaitNanos(nanos);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ApplicationErrorException("Ожидание очереди " + name + " прервано");
+            } finally {
+                waiting--;
+            }
+            return admit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public int getWaiting() {
+        return waiting;
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private Permit admit() {
+        inFlight++;
+        return new Permit(System.nanoTime(), inFlight);
+    }
+
+    private OverloadedException reject() {
+        rejected.incrementAndGet();
+        double serviceNanos = longRttNanos == 0 ? TimeUnit.SECONDS.toNanos(1) : longRttNanos;
+        long retryAfter = (long) Math.ceil(serviceNanos * (waiting + 1) / limit / TimeUnit.SECONDS.toNanos(1));
+        return new OverloadedException("Сервер перегружен, повторите запрос позже", Math.max(1, retryAfter));
+    }
+
+    private void release(long rttNanos, int inFlightAtStart) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (minLimit < maxLimit && rttNanos > 0) {
+                adjust(rttNanos, inFlightAtStart);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust(long rttNanos, int inFlightAtStart) {
+        longRttNanos = longRttNanos == 0 ? rttNanos
+                : longRttNanos * (1 - LONG_RTT_WEIGHT) + rttNanos * LONG_RTT_WEIGHT;
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRttNanos / rttNanos));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (inFlightAtStart < limit / 2) {
+            newLimit = Math.min(newLimit, limit);
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+
+    /**
+     * Разрешение на выполнение одного запроса; закрытие возвращает его и учитывает время выполнения.
+     */
+    public final class Permit implements AutoCloseable {
+        private final long startNanos;
+        private final int inFlightAtStart;
+        private boolean closed;
+
+        private Permit(long startNanos, int inFlightAtStart) {
+            this.startNanos = startNanos;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(System.nanoTime() - startNanos, inFlightAtStart);
+            }
+        }
+    }
+}
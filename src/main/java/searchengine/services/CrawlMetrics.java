@@ -0,0 +1,99 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Метрики обхода сайтов, все с тегом site — именем хоста сайта. Число загруженных страниц в секунду — это скорость
+ * роста счётчика crawl.fetch, ответы считаются по кодам в crawl.responses, а crawl.frontier
+ * показывает, сколько ссылок ждёт обхода в пуле сайта. Запись в индекс отмечается тегом store:
+ * database для строк lemma и search_index, lucene для документа Lucene.
+ */
+@Component
+@RequiredArgsConstructor
+public class CrawlMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<String, IndexingJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Подключает к метрике crawl.frontier сайта задание, которое его сейчас обходит.
+     */
+    public void track(IndexingJob job) {
+        String site = site(job.getUrl());
+        jobs.put(site, job);
+        Gauge.builder("crawl.frontier", this, metrics -> metrics.frontier(site))
+                .description("Ссылки, ожидающие обхода")
+                .tag("site", site)
+                .register(registry);
+    }
+
+    private double frontier(String site) {
+        IndexingJob job = jobs.get(site);
+        return job == null ? 0 : job.frontierSize();
+    }
+
+    public void fetched(String url, int status, long nanos) {
+        Timer.builder("crawl.fetch")
+                .description("Загрузка страницы")
+                .tag("site", site(url))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        Counter.builder("crawl.responses")
+                .tag("site", site(url))
+                .tag("status", Integer.toString(status))
+                .register(registry)
+                .increment();
+    }
+
+    public void fetchFailed(String url) {
+        Counter.builder("crawl.fetch.errors")
+                .description("Загрузки, завершившиеся ошибкой соединения")
+                .tag("site", site(url))
+                .register(registry)
+                .increment();
+    }
+
+    public void lemmatized(String url, long nanos) {
+        Timer.builder("crawl.lemmatize")
+                .description("Извлечение лемм и позиций из текста страницы")
+                .tag("site", site(url))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void stored(String url, String store, int rows, long nanos) {
+        Timer.builder("crawl.db.write")
+                .description("Запись лемм страницы в индекс")
+                .tag("site", site(url))
+                .tag("store", store)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("crawl.db.batch.size")
+                .description("Строк индекса в одной записи")
+                .baseUnit("rows")
+                .tag("site", site(url))
+                .tag("store", store)
+                .register(registry)
+                .record(rows);
+    }
+
+    private static String site(String url) {
+        try {
+            String host = new URI(url).getHost();
+            return host == null ? url : host;
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package searchengine.services;
+
+import org.springframework.web.util.HtmlUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Построение сниппета по смещениям слов. Текст разбирается на слова один раз,
+ * каждая различная словоформа лемматизируется один раз, для совпавших с леммами
+ * запроса слов запоминаются номера. Затем скользящим окном выбираются участки,
+ * покрывающие больше всего разных лемм запроса, и в них выделяются совпадения.
+ */
+public final class Highlighter {
+
+    private static final Pattern WORD = Pattern.compile(LemmaExtractor.WORD_TYPE_REGEX);
+    private static final int SNIPPET_WORDS = 40;
+    private static final int FRAGMENT_WORDS = 20;
+    private static final int MAX_FRAGMENTS = 2;
+    private static final String ELLIPSIS = "...";
+
+    private final String text;
+    private final List<String> lemmas;
+    private int[] starts = new int[256];
+    private int[] ends = new int[256];
+    private int wordCount;
+    private int[] matchWords = new int[16];
+    private int[] matchLemmas = new int[16];
+    private int matchCount;
+
+    private Highlighter(String text, List<String> lemmas) {
+        this.text = text;
+        this.lemmas = lemmas;
+    }
+
+    /**
+     * Сниппет текста с выделенными тегом b словами, нормальная форма которых есть
+     * среди lemmas. Пустая строка, если таких слов в тексте нет.
+     */
+    public static String snippet(String text, List<String> lemmas) {
+        if (text == null || text.isEmpty() || lemmas.isEmpty()) {
+            return "";
+        }
+        Highlighter highlighter = new Highlighter(text, lemmas);
+        highlighter.tokenize();
+        return highlighter.matchCount == 0 ? "" : highlighter.build();
+    }
+
+    private void tokenize() {
+        Map<String, Integer> forms = new HashMap<>();
+        Matcher matcher = WORD.matcher(text);
+        while (matcher.find()) {
+            if (wordCount == starts.length) {
+                starts = Arrays.copyOf(starts, wordCount * 2);
+                ends = Arrays.copyOf(ends, wordCount * 2);
+            }
+            starts[wordCount] = matcher.start();
+            ends[wordCount] = matcher.end();
+            if (matcher.end() - matcher.start() > 1) {
+                String form = text.substring(matcher.start(), matcher.end()).toLowerCase();
+                int lemma = forms.computeIfAbsent(form, this::matchLemma);
+                if (lemma >= 0) {
+                    addMatch(wordCount, lemma);
+                }
+            }
+            wordCount++;
+        }
+    }
+
+    private int matchLemma(String form) {
+        List<String> normalForms = Lemmatizer.normalForms(form);
+        for (int i = 0; i < lemmas.size(); i++) {
+            if (normalForms.contains(lemmas.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addMatch(int word, int lemma) {
+        if (matchCount == matchWords.length) {
+            matchWords = Arrays.copyOf(matchWords, matchCount * 2);
+            matchLemmas = Arrays.copyOf(matchLemmas, matchCount * 2);
+        }
+        matchWords[matchCount] = word;
+        matchLemmas[matchCount++] = lemma;
+    }
+
+    private String build() {
+        boolean[] covered = new boolean[lemmas.size()];
+        List<int[]> fragments = new ArrayList<>();
+        while (fragments.size() < MAX_FRAGMENTS) {
+            int[] fragment = densestWindow(covered, fragments);
+            if (fragment == null) {
+                break;
+            }
+            fragments.add(fragment);
+        }
+        if (fragments.size() == 1) {
+            fragments.set(0, widen(fragments.get(0)[0], fragments.get(0)[1], SNIPPET_WORDS));
+        }
+        fragments.sort((a, b) -> Integer.compare(a[0], b[0]));
+        StringBuilder builder = new StringBuilder();
+        for (int[] fragment : fragments) {
+            if (fragment[0] > 0 && builder.length() == 0) {
+                builder.append(ELLIPSIS).append(' ');
+            } else if (builder.length() > 0) {
+                builder.append(' ').append(ELLIPSIS).append(' ');
+            }
+            append(builder, fragment[0], fragment[1]);
+        }
+        if (fragments.get(fragments.size() - 1)[1] < wordCount - 1) {
+            builder.append(' ').append(ELLIPSIS);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Окно не длиннее FRAGMENT_WORDS слов, не пересекающееся с выбранными ранее,
+     * с наибольшим числом ещё не покрытых лемм, а при равенстве — с наибольшим числом совпадений.
+     * Возвращает номера первого и последнего слова или null, если новых лемм не найти.
+     */
+    private int[] densestWindow(boolean[] covered, List<int[]> taken) {
+        int[] counts = new int[lemmas.size()];
+        int distinct = 0;
+        int bestDistinct = 0;
+        int bestTotal = 0;
+        int bestLeft = -1;
+        int bestRight = -1;
+        int left = 0;
+        for (int right = 0; right < matchCount; right++) {
+            if (overlaps(matchWords[right], taken)) {
+                while (left < right) {
+                    distinct -= release(counts, covered, left++);
+                }
+                left = right + 1;
+                continue;
+            }
+            if (!covered[matchLemmas[right]] && counts[matchLemmas[right]]++ == 0) {
+                distinct++;
+            }
+            while (matchWords[right] - matchWords[left] >= FRAGMENT_WORDS) {
+                distinct -= release(counts, covered, left++);
+            }
+            int total = right - left + 1;
+            if (distinct > bestDistinct || distinct == bestDistinct && distinct > 0 && total > bestTotal) {
+                bestDistinct = distinct;
+                bestTotal = total;
+                bestLeft = matchWords[left];
+                bestRight = matchWords[right];
+            }
+        }
+        if (bestDistinct == 0) {
+            return null;
+        }
+        for (int i = 0; i < matchCount; i++) {
+            if (matchWords[i] >= bestLeft && matchWords[i] <= bestRight) {
+                covered[matchLemmas[i]] = true;
+            }
+        }
+        int[] window = widen(bestLeft, bestRight, FRAGMENT_WORDS);
+        for (int[] fragment : taken) {
+            if (fragment[1] < bestLeft) {
+                window[0] = Math.max(window[0], fragment[1] + 1);
+            } else if (fragment[0] > bestRight) {
+                window[1] = Math.min(window[1], fragment[0] - 1);
+            }
+        }
+        return window;
+    }
+
+    private int release(int[] counts, boolean[] covered, int match) {
+        int lemma = matchLemmas[match];
+        return !covered[lemma] && --counts[lemma] == 0 ? 1 : 0;
+    }
+
+    private static boolean overlaps(int word, List<int[]> taken) {
+        for (int[] fragment : taken) {
+            if (word >= fragment[0] && word <= fragment[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Расширяет участок слов [first, last] до size слов поровну в обе стороны в пределах текста.
+     */
+    private int[] widen(int first, int last, int size) {
+        int extra = Math.max(0, size - (last - first + 1));
+        int start = Math.max(0, first - extra / 2);
+        int end = Math.min(wordCount - 1, start + Math.max(size, last - first + 1) - 1);
+        start = Math.max(0, Math.min(start, end - size + 1));
+        return new int[]{start, end};
+    }
+
+    private void append(StringBuilder builder, int first, int last) {
+        int match = 0;
+        while (match < matchCount && matchWords[match] < first) {
+            match++;
+        }
+        int position = starts[first];
+        for (; match < matchCount && matchWords[match] <= last; match++) {
+            int word = matchWords[match];
+            builder.append(HtmlUtils.htmlEscape(text.substring(position, starts[word])))
+                    .append("<b>").append(HtmlUtils.htmlEscape(text.substring(starts[word], ends[word])))
+                    .append("</b>");
+            position = ends[word];
+        }
+        builder.append(HtmlUtils.htmlEscape(text.substring(position, ends[last])));
+    }
+}
@@ -0,0 +1,41 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import javax.annotation.PostConstruct;
+
+/**
+ * Поколение индекса в базе: счётчик в таблице index_generation, который увеличивается
+ * в той же транзакции, что изменяет или удаляет существующие строки search_index.
+ * Новые строки счётчик не меняют, их снимок кэша догружает по id. По поколению
+ * снимок, записанный до изменений другого экземпляра или до сбоя, отличается от базы.
+ */
+@Service
+@RequiredArgsConstructor
+public class IndexGeneration {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void createTable() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS index_generation " +
+                "(id INT NOT NULL PRIMARY KEY, generation BIGINT NOT NULL)");
+        jdbcTemplate.update("INSERT IGNORE INTO index_generation (id, generation) VALUES (1, 0)");
+    }
+
+    public long current() {
+        Long generation = jdbcTemplate.queryForObject("SELECT generation FROM index_generation WHERE id = 1",
+                Long.class);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * Увеличивает поколение и возвращает новое значение. Внутри транзакции строка счётчика
+     * блокируется до её фиксации, поэтому значение принадлежит только этой транзакции.
+     */
+    public long advance() {
+        jdbcTemplate.update("UPDATE index_generation SET generation = generation + 1 WHERE id = 1");
+        return current();
+    }
+}
@@ -0,0 +1,137 @@
+package searchengine.services;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Индексация одного сайта: собственный пул обхода, HTTP-клиент и список выполняющихся запросов.
+ * Отмена срабатывает сразу: паузы между запросами прерываются, выполняющиеся запросы
+ * отменяются вместе с соединением, задачи в очереди пула отбрасываются, а поток обхода
+ * получает {@link CancellationException} в ближайшей точке ожидания.
+ */
+@Slf4j
+public final class IndexingJob {
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows; U; WindowsNT 5.1; en-US; rv1.8.1.6) " +
+            "Gecko/20070725 Firefox/2.0.0.6";
+    private static final String REFERRER = "http://www.google.com";
+
+    @Getter
+    private final String url;
+    private final CrawlMetrics metrics;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL).build();
+    private final Set<CompletableFuture<?>> requests = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private volatile ForkJoinPool pool;
+
+    public IndexingJob(String url, CrawlMetrics metrics) {
+        this.url = url;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Выполняет обход в собственном пуле и ждёт его завершения или отмены.
+     */
+    public void run(PageSearcher root) {
+        pool = new ForkJoinPool();
+        metrics.track(this);
+        try {
+            if (!isCancelled()) {
+                pool.invoke(root);
+            }
+        } catch (CancellationException e) {
+            log.info("Индексация сайта {} отменена", url);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.getCount() == 0;
+    }
+
+    /**
+     * Число задач обхода, ожидающих выполнения в пуле.
+     */
+    public long frontierSize() {
+        ForkJoinPool current = pool;
+        return current == null || current.isShutdown() ? 0
+                : current.getQueuedTaskCount() + current.getQueuedSubmissionCount();
+    }
+
+    public void cancel() {
+        cancelled.countDown();
+        requests.forEach(request -> request.cancel(true));
+        ForkJoinPool current = pool;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    /**
+     * Пауза между запросами к сайту, прерываемая отменой.
+     */
+    public void pause(long millis) {
+        try {
+            if (cancelled.await(millis, TimeUnit.MILLISECONDS)) {
+                throw new CancellationException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Загружает страницу. Запрос выполняется асинхронно, и отмена задания обрывает его.
+     */
+    public HttpResponse<String> fetch(String pageUrl) throws IOException, URISyntaxException {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+        HttpRequest request = HttpRequest.newBuilder(new URI(pageUrl))
+                .header("User-Agent", USER_AGENT).header("Referer", REFERRER).build();
+        CompletableFuture<HttpResponse<String>> response = client.sendAsync(request,
+                HttpResponse.BodyHandlers.ofString());
+        requests.add(response);
+        long start = System.nanoTime();
+        try {
+            if (isCancelled()) {
+                response.cancel(true);
+            }
+            HttpResponse<String> result = response.get();
+            metrics.fetched(url, result.statusCode(), System.nanoTime() - start);
+            return result;
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } catch (ExecutionException e) {
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+            metrics.fetchFailed(url);
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            requests.remove(response);
+        }
+    }
+}
@@ -2,8 +2,6 @@ package searchengine.services;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.stereotype.Service;
 import searchengine.config.Site;
 import searchengine.config.SitesList;
@@ -13,10 +11,13 @@ import searchengine.model.Status;
 import searchengine.repository.LemmaRepository;
 import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
+import searchengine.responses.ApplicationErrorException;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -25,7 +26,6 @@ import java.util.concurrent.*;
 @Service
 @Slf4j
 @RequiredArgsConstructor
-@EnableAsync
 public class IndexingService {
 
     private final SitesList sites;
@@ -35,8 +35,15 @@ public class IndexingService {
     private final LemmaExtractor lemmaExtractor;
     LinksStorage storage = new LinksStorage();
     public static String error;
-    public ConcurrentHashMap<Thread, Integer> taskList = new ConcurrentHashMap<>();
+    private final Map<String, IndexingJob> jobs = new ConcurrentHashMap<>();
+    private volatile CountDownLatch finished = new CountDownLatch(0);
     private final LemmaRepository lemmaRepository;
+    private final LuceneIndexService luceneIndexService;
+    private final PostingsCache postingsCache;
+    private final SearchResultCache searchResultCache;
+    private final SuggestService suggestService;
+    private final CrawlMetrics crawlMetrics;
+    private final IndexGeneration indexGeneration;
 
     public List<SiteDto> getSiteList() {
         log.info("Получение списка сайтов...");
@@ -83,20 +90,28 @@ public class IndexingService {
             List<SiteDto> siteDtoList = getSiteList();
             for (SiteDto siteDto : siteDtoList) {
                 if (url.startsWith(siteDto.getUrl())) {
-                    siteRepository.save(mapToEntity(siteDto));
+                    siteEntity = siteRepository.save(mapToEntity(siteDto));
                 }
             }
         }
         SiteEntity finalSiteEntity = siteEntity;
-        PageSearcher pageSearcher = new PageSearcher(url, pageRepository, finalSiteEntity, lemmaExtractor);
+        IndexingJob job = new IndexingJob(url, crawlMetrics);
+        jobs.put(url, job);
+        PageSearcher pageSearcher = new PageSearcher(url, pageRepository, finalSiteEntity, lemmaExtractor, job);
         try {
             pageSearcher.indexPage();
             finalSiteEntity.setStatus(Status.INDEXED);
+        } catch (CancellationException e) {
+            finalSiteEntity.setStatus(Status.FAILED);
+            finalSiteEntity.setLastError(error);
         } catch (Exception e) {
             finalSiteEntity.setStatus(Status.FAILED);
             finalSiteEntity.setLastError(e.getMessage());
+        } finally {
+            jobs.remove(url);
         }
         siteRepository.save(finalSiteEntity);
+        commitIndex();
         indexingStatus = Status.INDEXED;
         log.info("ИНДЕКСАЦИЯ СТРАНИЦЫ ЗАВЕРШЕНА!");
     }
@@ -104,31 +119,67 @@ public class IndexingService {
     private void clearResources() {
         error = null;
         PageSearcher.running = true;
-        taskList.clear();
+        jobs.clear();
         LinksStorage.pages.clear();
     }
 
     public void startProcess() {
-        indexingStatus = Status.INDEXING;
-        clearResources();
+        long generation = indexGeneration.advance();
         lemmaRepository.deleteAll();
         siteRepository.deleteAll();
+        postingsCache.reset(generation);
+        searchResultCache.bumpGeneration();
+        if (luceneIndexService.isEnabled()) {
+            try {
+                luceneIndexService.deleteAll();
+            } catch (IOException e) {
+                throw new ApplicationErrorException(e.getMessage());
+            }
+        }
+    }
+
+    private void commitIndex() {
+        if (luceneIndexService.isEnabled()) {
+            luceneIndexService.commit();
+        }
+        postingsCache.logFootprint();
+        postingsCache.writeSnapshot();
+        suggestService.rebuild();
     }
 
-    @Async
+    /**
+     * Запускает полную индексацию в отдельном потоке. Статус, признак работы и ожидание
+     * завершения выставляются до возврата, чтобы остановка сразу после запуска
+     * дожидалась именно этой индексации.
+     */
     public void startIndexing() {
+        CountDownLatch latch = new CountDownLatch(1);
+        finished = latch;
+        indexingStatus = Status.INDEXING;
+        clearResources();
+        Thread thread = new Thread(() -> {
+            try {
+                indexSites();
+            } finally {
+                latch.countDown();
+            }
+        }, "indexing");
+        thread.start();
+    }
+
+    private void indexSites() {
         startProcess();
         List<SiteDto> siteDtoList = getSiteList();
+        Map<Thread, Integer> taskList = new LinkedHashMap<>();
         for (SiteDto site : siteDtoList) {
             String parentLink = site.getUrl();
             SiteEntity siteEntity = mapToEntity(site);
             siteRepository.save(siteEntity);
-            Runnable task = () -> {
-                PageSearcher pageSearcher = new PageSearcher(parentLink, pageRepository, siteEntity, lemmaExtractor);
-                ForkJoinPool forkJoinPool = new ForkJoinPool();
-                forkJoinPool.invoke(pageSearcher);
-            };
-            Thread thread = new Thread(task);
+            IndexingJob job = new IndexingJob(parentLink, crawlMetrics);
+            jobs.put(parentLink, job);
+            Runnable task = () -> job.run(new PageSearcher(parentLink, pageRepository, siteEntity, lemmaExtractor,
+                    job));
+            Thread thread = new Thread(task, "indexing-" + siteEntity.getId());
             taskList.put(thread, siteEntity.getId());
         }
 
@@ -154,14 +205,32 @@ public class IndexingService {
                 entity.ifPresent(siteRepository::save);
             }
         }
+        jobs.clear();
+        commitIndex();
         indexingStatus = Status.INDEXED;
         log.info("ИНДЕКСАЦИЯ ЗАВЕРШЕНА!");
         PageSearcher.running = true;
     }
 
-    public void stopIndexing() throws InterruptedException {
+    /**
+     * Останавливает индексацию: отменяет задания всех сайтов и ждёт, пока обход завершится
+     * и индекс будет сохранён, не дольше indexing-settings.stop-timeout-ms.
+     *
+     * @return время остановки в миллисекундах или -1, если она ещё не завершилась
+     */
+    public long stopIndexing() throws InterruptedException {
+        long start = System.nanoTime();
         PageSearcher.running = false;
         error = "Индексация остановлена пользователем";
+        jobs.values().forEach(IndexingJob::cancel);
+        boolean stopped = finished.await(sites.getStopTimeoutMs(), TimeUnit.MILLISECONDS);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (!stopped) {
+            log.warn("Индексация не остановилась за {} мс, остановка продолжается", millis);
+            return -1;
+        }
+        log.info("Индексация остановлена за {} мс", millis);
+        return millis;
     }
 
     public static SiteEntity mapToEntity(SiteDto site) {
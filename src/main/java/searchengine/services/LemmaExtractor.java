@@ -1,30 +1,49 @@
 package searchengine.services;
 
 import lombok.RequiredArgsConstructor;
-import org.apache.lucene.morphology.LuceneMorphology;
-import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
-import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import searchengine.config.MorphologySettings;
+import searchengine.index.Phrase;
+import searchengine.index.Positions;
 import searchengine.model.IndexEntity;
 import searchengine.model.LemmaEntity;
 import searchengine.model.PageEntity;
 import searchengine.model.SiteEntity;
 import searchengine.repository.IndexRepository;
 import searchengine.repository.LemmaRepository;
+import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
+import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @Service
+@Slf4j
 @RequiredArgsConstructor
 public class LemmaExtractor {
 
     public static final String WORD_TYPE_REGEX = "[a-zA-Zа-яёА-ЯЁ]+";
+    private static final Pattern WORD_PATTERN = Pattern.compile(WORD_TYPE_REGEX);
+    private static final Pattern PHRASE_PATTERN = Pattern.compile("\"([^\"]+)\"");
+    private static final Pattern EXCLUSION_PATTERN = Pattern.compile("(?<![\\p{L}-])-(" + WORD_TYPE_REGEX + ")");
     private final SiteRepository siteRepository;
     private final LemmaRepository lemmaRepository;
     private final IndexRepository indexRepository;
+    private final PageRepository pageRepository;
+    private final LuceneIndexService luceneIndexService;
+    private final PostingsCache postingsCache;
+    private final SearchResultCache searchResultCache;
+    private final AdmissionService admissionService;
+    private final MorphologySettings morphologySettings;
+    private final CrawlMetrics crawlMetrics;
+    private final IndexGeneration indexGeneration;
 
     protected static List<String> russianStopWords = new ArrayList<>(Arrays.asList( "и", "в",
             "во", "не", "что", "он", "на", "я", "с", "со", "как", "а", "то", "наш",
@@ -53,14 +72,33 @@ public class LemmaExtractor {
             int start = matcher.start();
             int end = matcher.end();
             String word = text.substring(start, end);
-            if (word.length() > 1 && isCyrillic(word) && !russianStopWords.contains(word.toLowerCase()) ||
-                    word.length() > 1 && isLatin(word) && !englishStopWords.contains(word.toLowerCase())) {
+            if (isIndexable(word)) {
                 words.add(word.toLowerCase());
             }
         }
         return words;
     }
 
+    public static boolean isIndexable(String word) {
+        return word.length() > 1 && isCyrillic(word) && !russianStopWords.contains(word.toLowerCase()) ||
+                word.length() > 1 && isLatin(word) && !englishStopWords.contains(word.toLowerCase());
+    }
+
+    @PostConstruct
+    public void configureMorphology() {
+        if (morphologySettings.isMapped()) {
+            Lemmatizer.useMappedDictionaries(Path.of(morphologySettings.getPath()));
+        }
+    }
+
+    /**
+     * Лемма отдельного слова по тем же правилам, что и в lemmaExtract,
+     * либо null, если слово не индексируется.
+     */
+    public static String toLemma(String word) {
+        return isIndexable(word) ? Lemmatizer.lemmaOf(word.toLowerCase()) : null;
+    }
+
     public static boolean isCyrillic(String word) {
         String regex = "[а-яёА-ЯЁ]+";
         return word.matches(regex);
@@ -70,7 +108,89 @@ public class LemmaExtractor {
         return word.matches("[a-zA-Z]+");
     }
 
-    private void lemmasCreate(Map<String, Integer> lemmas, Integer siteId, PageEntity pageEntity) {
+    /**
+     * Позиции каждой леммы в тексте в кодировке {@link Positions}. Позиция — номер слова
+     * среди всех слов текста, включая стоп-слова, как в индексе Lucene.
+     */
+    public static Map<String, byte[]> lemmaPositions(String text) {
+        Map<String, String> forms = new HashMap<>();
+        Map<String, int[]> positions = new HashMap<>();
+        Map<String, Integer> sizes = new HashMap<>();
+        Matcher matcher = WORD_PATTERN.matcher(text);
+        int position = 0;
+        while (matcher.find()) {
+            String word = matcher.group();
+            String lemma = forms.computeIfAbsent(word, w -> Objects.requireNonNullElse(toLemma(w), ""));
+            if (!lemma.isEmpty()) {
+                int size = sizes.getOrDefault(lemma, 0);
+                int[] list = positions.computeIfAbsent(lemma, l -> new int[4]);
+                if (size == list.length) {
+                    list = Arrays.copyOf(list, size * 2);
+                    positions.put(lemma, list);
+                }
+                list[size] = position;
+                sizes.put(lemma, size + 1);
+            }
+            position++;
+        }
+        Map<String, byte[]> encoded = new HashMap<>();
+        positions.forEach((lemma, list) -> encoded.put(lemma, Positions.encode(list, sizes.get(lemma))));
+        return encoded;
+    }
+
+    /**
+     * Леммы слов запроса, перед которыми стоит минус: страницы с ними исключаются из результата.
+     */
+    public static List<String> excludedLemmas(String query) {
+        List<String> lemmas = new ArrayList<>();
+        Matcher matcher = EXCLUSION_PATTERN.matcher(query);
+        while (matcher.find()) {
+            String lemma = toLemma(matcher.group(1));
+            if (lemma != null && !lemmas.contains(lemma)) {
+                lemmas.add(lemma);
+            }
+        }
+        return lemmas;
+    }
+
+    /**
+     * Запрос без исключаемых слов.
+     */
+    public static String withoutExclusions(String query) {
+        return EXCLUSION_PATTERN.matcher(query).replaceAll(" ");
+    }
+
+    /**
+     * Фразы запроса, заключённые в двойные кавычки, с позициями лемм относительно первой леммы фразы.
+     */
+    public static List<Phrase> phrases(String query) {
+        List<Phrase> phrases = new ArrayList<>();
+        Matcher phraseMatcher = PHRASE_PATTERN.matcher(query);
+        while (phraseMatcher.find()) {
+            List<String> lemmas = new ArrayList<>();
+            List<Integer> offsets = new ArrayList<>();
+            Matcher matcher = WORD_PATTERN.matcher(phraseMatcher.group(1));
+            int position = 0;
+            while (matcher.find()) {
+                String lemma = toLemma(matcher.group());
+                if (lemma != null) {
+                    if (offsets.isEmpty()) {
+                        position = 0;
+                    }
+                    lemmas.add(lemma);
+                    offsets.add(position);
+                }
+                position++;
+            }
+            if (!lemmas.isEmpty()) {
+                phrases.add(new Phrase(lemmas, offsets));
+            }
+        }
+        return phrases;
+    }
+
+    private void lemmasCreate(Map<String, Integer> lemmas, Map<String, byte[]> positions, Integer siteId,
+                              PageEntity pageEntity) {
         if (PageSearcher.running) {
             List<LemmaEntity> allLemmaEntity = lemmaRepository.findAll();
             List<String> allLemmas = allLemmaEntity.stream().map(LemmaEntity::getLemma).toList();
@@ -97,59 +217,177 @@ public class LemmaExtractor {
                 indexEntity.setLemmaEntity(lemma);
                 indexEntity.setPageEntity(pageEntity);
                 indexEntity.setRate(entry.getValue());
+                indexEntity.setPositions(positions.get(entry.getKey()));
                 if (PageSearcher.running) {
                     indexRepository.save(indexEntity);
+                    postingsCache.add(indexEntity);
                 }
             }
         }
     }
 
-    protected void deleteLemmaForPage(PageEntity pageEntity) {
-        List<IndexEntity> indexEntities = indexRepository.findAll().stream()
-                .filter(i -> i.getPageEntity().equals(pageEntity)).toList();
-        List<LemmaEntity> lemmaEntities = indexEntities.stream().map(IndexEntity::getLemmaEntity).toList();
-        for (LemmaEntity lemmaEntity : lemmaEntities) {
-            if (lemmaEntity.getFrequency() == 1) {
-                lemmaRepository.delete(lemmaEntity);
+    /**
+     * Переиндексирует изменившуюся страницу. Код ответа, содержимое, заголовок и текст
+     * переносятся из fetched в pageEntity и сохраняются в той же транзакции, что и индекс,
+     * поэтому страница и её строки индекса фиксируются или откатываются вместе. Прежние леммы
+     * страницы сравниваются с леммами нового текста, и записываются только добавленные, удалённые
+     * и изменившиеся строки индекса, а частоты затронутых лемм меняются на разницу. Если страница
+     * стала отдавать ошибку, все её леммы удаляются. Кэш индекса в памяти и поколение
+     * кэша результатов меняются только после фиксации транзакции, чтобы не разойтись с базой
+     * при откате и не закэшировать под новым поколением результат, прочитанный до фиксации.
+     */
+    @Transactional
+    public void reindexPage(PageEntity pageEntity, PageEntity fetched) throws IOException {
+        pageEntity.setCode(fetched.getCode());
+        pageEntity.setContent(fetched.getContent());
+        pageEntity.setTitle(fetched.getTitle());
+        pageEntity.setText(fetched.getText());
+        pageRepository.save(pageEntity);
+        String text = pageEntity.getCode() < 400 ? pageEntity.getText() : null;
+        if (luceneIndexService.isEnabled()) {
+            long start = System.nanoTime();
+            if (text == null || text.isEmpty()) {
+                luceneIndexService.deletePage(pageEntity);
             } else {
-                lemmaEntity.setFrequency(lemmaEntity.getFrequency() - 1);
+                luceneIndexService.addPage(pageEntity, text);
+            }
+            crawlMetrics.stored(pageEntity.getSite().getUrl(), "lucene", 1, System.nanoTime() - start);
+            searchResultCache.bumpGeneration();
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, Integer> lemmas = text == null ? Map.of() : lemmaExtract(text);
+        Map<String, byte[]> positions = text == null ? Map.of() : lemmaPositions(text);
+        crawlMetrics.lemmatized(pageEntity.getSite().getUrl(), System.nanoTime() - start);
+        ConcurrencyLimiter.Permit permit = admissionService.indexing();
+        try {
+            start = System.nanoTime();
+            int rows = applyDelta(pageEntity, lemmas, positions);
+            crawlMetrics.stored(pageEntity.getSite().getUrl(), "database", rows, System.nanoTime() - start);
+        } finally {
+            permit.close();
+        }
+        afterCommit(searchResultCache::bumpGeneration);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * @return число записанных и удалённых строк lemma и search_index
+     */
+    private int applyDelta(PageEntity pageEntity, Map<String, Integer> lemmas, Map<String, byte[]> positions) {
+        Map<String, IndexEntity> previous = new HashMap<>();
+        for (IndexEntity index : indexRepository.findByPageId(pageEntity.getId())) {
+            previous.put(index.getLemmaEntity().getLemma(), index);
+        }
+        List<IndexEntity> removed = new ArrayList<>();
+        List<IndexEntity> saved = new ArrayList<>();
+        List<LemmaEntity> changedLemmas = new ArrayList<>();
+        List<LemmaEntity> emptyLemmas = new ArrayList<>();
+        for (Map.Entry<String, IndexEntity> entry : previous.entrySet()) {
+            if (!lemmas.containsKey(entry.getKey())) {
+                IndexEntity index = entry.getValue();
+                LemmaEntity lemma = index.getLemmaEntity();
+                lemma.setFrequency(lemma.getFrequency() - 1);
+                (lemma.getFrequency() > 0 ? changedLemmas : emptyLemmas).add(lemma);
+                removed.add(index);
+            }
+        }
+        List<String> added = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : lemmas.entrySet()) {
+            IndexEntity index = previous.get(entry.getKey());
+            byte[] pagePositions = positions.get(entry.getKey());
+            if (index == null) {
+                added.add(entry.getKey());
+            } else if (index.getRate() != entry.getValue() || !Arrays.equals(index.getPositions(), pagePositions)) {
+                index.setRate(entry.getValue());
+                index.setPositions(pagePositions);
+                saved.add(index);
             }
         }
-        for (IndexEntity index : indexEntities) {
-            indexRepository.delete(index);
+        Map<String, LemmaEntity> existing = new HashMap<>();
+        if (!added.isEmpty()) {
+            lemmaRepository.findByLemmaIn(added).forEach(lemma -> existing.putIfAbsent(lemma.getLemma(), lemma));
+        }
+        for (String lemmaText : added) {
+            LemmaEntity lemma = existing.get(lemmaText);
+            if (lemma == null) {
+                lemma = new LemmaEntity();
+                lemma.setSiteEntity(pageEntity.getSite());
+                lemma.setLemma(lemmaText);
+                lemma.setFrequency(0);
+            }
+            lemma.setFrequency(lemma.getFrequency() + 1);
+            changedLemmas.add(lemma);
+            IndexEntity index = new IndexEntity();
+            index.setLemmaEntity(lemma);
+            index.setPageEntity(pageEntity);
+            index.setRate(lemmas.get(lemmaText));
+            index.setPositions(positions.get(lemmaText));
+            saved.add(index);
         }
+        long generation = !removed.isEmpty() || saved.size() > added.size() ? indexGeneration.advance() : -1;
+        indexRepository.deleteAllInBatch(removed);
+        lemmaRepository.deleteAllInBatch(emptyLemmas);
+        lemmaRepository.saveAll(changedLemmas);
+        indexRepository.saveAll(saved);
+        afterCommit(() -> {
+            removed.forEach(postingsCache::remove);
+            saved.forEach(postingsCache::add);
+            if (generation >= 0) {
+                postingsCache.advanceGeneration(generation);
+            }
+        });
+        log.info("Страница {} переиндексирована: добавлено {}, изменено {}, удалено {} записей индекса",
+                pageEntity.getPath(), added.size(), saved.size() - added.size(), removed.size());
+        return removed.size() + emptyLemmas.size() + changedLemmas.size() + saved.size();
     }
 
     public static Map<String, Integer> lemmaExtract(String text) throws IOException {
         Map<String, Integer> lemmas = new HashMap<>();
         String[] splitText = getWords(text).toArray(new String[0]);
-        LuceneMorphology russianMorphology = new RussianLuceneMorphology();
-        LuceneMorphology englishMorphology = new EnglishLuceneMorphology();
         for (String word : splitText) {
-            try {
-                if (isCyrillic(word)) {
-                    List<String> russianForms = russianMorphology.getNormalForms(word);
-                    if (!russianForms.isEmpty()) {
-                        String lemma = russianForms.get(0);
-                        lemmas.put(lemma, lemmas.getOrDefault(lemma, 0) + 1);
-                    }
-                }
-                if (isLatin(word)) {
-                    List<String> englishForms = englishMorphology.getNormalForms(word);
-                    if (!englishForms.isEmpty()) {
-                        String lemma = englishForms.get(0);
-                        lemmas.put(lemma, lemmas.getOrDefault(lemma, 0) + 1);
-                    }
-                }
-            } catch (Exception e) {
-                System.out.println(e.getMessage());
+            String lemma = Lemmatizer.lemmaOf(word);
+            if (lemma != null) {
+                lemmas.put(lemma, lemmas.getOrDefault(lemma, 0) + 1);
             }
         }
         return lemmas;
     }
 
     protected void getAllLemmas(String text, Integer siteId, PageEntity pageEntity) throws IOException {
-        Map<String, Integer> lemmas = lemmaExtract(text);
-        lemmasCreate(lemmas, siteId, pageEntity);
+        if (luceneIndexService.isEnabled()) {
+            if (PageSearcher.running && pageEntity.getId() != null) {
+                long start = System.nanoTime();
+                luceneIndexService.addPage(pageEntity, text);
+                crawlMetrics.stored(pageEntity.getSite().getUrl(), "lucene", 1, System.nanoTime() - start);
+            }
+        } else {
+            long start = System.nanoTime();
+            Map<String, Integer> lemmas = lemmaExtract(text);
+            Map<String, byte[]> positions = lemmaPositions(text);
+            crawlMetrics.lemmatized(pageEntity.getSite().getUrl(), System.nanoTime() - start);
+            ConcurrencyLimiter.Permit permit = admissionService.indexing();
+            try {
+                start = System.nanoTime();
+                lemmasCreate(lemmas, positions, siteId, pageEntity);
+                crawlMetrics.stored(pageEntity.getSite().getUrl(), "database", lemmas.size() * 2,
+                        System.nanoTime() - start);
+            } finally {
+                permit.close();
+            }
+        }
+        searchResultCache.bumpGeneration();
     }
 }
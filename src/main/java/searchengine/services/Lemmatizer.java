@@ -0,0 +1,102 @@
+package searchengine.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.morphology.Morphology;
+import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
+import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общие для всего приложения экземпляры морфологии. Словари загружаются один раз
+ * при первом обращении, дальше используются только для чтения из любых потоков.
+ * Если задан каталог отображаемых словарей, они читаются из файлов {@link MappedMorphology},
+ * иначе библиотека загружает их в кучу.
+ */
+@Slf4j
+public final class Lemmatizer {
+
+    private static Path mappedDirectory;
+    private static boolean loaded;
+
+    private Lemmatizer() {
+    }
+
+    /**
+     * Включает словари, отображаемые в память из каталога directory. Должен быть вызван
+     * до первой лемматизации: если словари уже загружены из другого источника,
+     * выбрасывает IllegalStateException, а не продолжает работу с ними молча.
+     */
+    public static synchronized void useMappedDictionaries(Path directory) {
+        if (loaded && !directory.equals(mappedDirectory)) {
+            throw new IllegalStateException("Словари морфологии уже загружены " +
+                    (mappedDirectory != null ? "из " + mappedDirectory : "в кучу") +
+                    ", отображаемые словари из " + directory + " не будут использованы");
+        }
+        mappedDirectory = directory;
+    }
+
+    /**
+     * Фиксирует источник словарей при первой загрузке; после этого он не меняется.
+     */
+    private static synchronized Path dictionaryDirectory() {
+        loaded = true;
+        return mappedDirectory;
+    }
+
+    private static class Dictionaries {
+        static final Morphology RUSSIAN = load(true);
+        static final Morphology ENGLISH = load(false);
+
+        private static Morphology load(boolean russian) {
+            long start = System.nanoTime();
+            try {
+                Path directory = dictionaryDirectory();
+                Morphology morphology = directory != null ? MappedMorphology.load(directory, russian)
+                        : russian ? new RussianLuceneMorphology() : new EnglishLuceneMorphology();
+                log.info("Словарь морфологии {} загружен за {} мс", russian ? "russian" : "english",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return morphology;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public static Morphology russian() {
+        return Dictionaries.RUSSIAN;
+    }
+
+    public static Morphology english() {
+        return Dictionaries.ENGLISH;
+    }
+
+    /**
+     * Возвращает первую нормальную форму слова в нижнем регистре
+     * или null, если слово не относится ни к русскому, ни к английскому языку.
+     */
+    public static String lemmaOf(String word) {
+        List<String> forms = normalForms(word);
+        return forms.isEmpty() ? null : forms.get(0);
+    }
+
+    /**
+     * Все нормальные формы слова в нижнем регистре; пустой список, если слово
+     * не относится ни к русскому, ни к английскому языку.
+     */
+    public static List<String> normalForms(String word) {
+        try {
+            if (LemmaExtractor.isCyrillic(word)) {
+                return russian().getNormalForms(word);
+            } else if (LemmaExtractor.isLatin(word)) {
+                return english().getNormalForms(word);
+            }
+        } catch (Exception e) {
+            log.debug("Не удалось получить лемму слова {}: {}", word, e.getMessage());
+        }
+        return List.of();
+    }
+}
@@ -0,0 +1,276 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.springframework.stereotype.Service;
+import searchengine.config.SearchSettings;
+import searchengine.index.Deadline;
+import searchengine.index.Phrase;
+import searchengine.index.TopHits;
+import searchengine.lucene.LemmaAnalyzer;
+import searchengine.model.PageEntity;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Инвертированный индекс в локальном каталоге Lucene. Используется вместо таблиц
+ * lemma и search_index, если search-settings.backend: lucene. Метаданные страниц
+ * по-прежнему хранятся в MySQL, в документе Lucene лежит только id страницы.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class LuceneIndexService {
+
+    public static final String PAGE_ID = "page_id";
+    public static final String SITE = "site";
+    public static final String CONTENT = "content";
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+    private static final int TOTAL_HITS_THRESHOLD = 1000;
+    private static final int PROXIMITY_SLOP = 20;
+
+    private final SearchSettings searchSettings;
+    private MMapDirectory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        directory = new MMapDirectory(Path.of(searchSettings.getLuceneIndexPath()));
+        IndexWriterConfig config = new IndexWriterConfig(new LemmaAnalyzer());
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        writer = new IndexWriter(directory, config);
+        searcherManager = new SearcherManager(writer, null);
+        log.info("Индекс Lucene открыт: {}", searchSettings.getLuceneIndexPath());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+
+    public boolean isEnabled() {
+        return searchSettings.getBackend() == SearchSettings.Backend.LUCENE;
+    }
+
+    public void addPage(PageEntity pageEntity, String text) throws IOException {
+        Document document = new Document();
+        String pageId = pageEntity.getId().toString();
+        document.add(new StringField(PAGE_ID, pageId, Field.Store.YES));
+        document.add(new StringField(SITE, pageEntity.getSite().getUrl(), Field.Store.NO));
+        document.add(new TextField(CONTENT, text, Field.Store.NO));
+        writer.updateDocument(new Term(PAGE_ID, pageId), document);
+    }
+
+    public void deletePage(PageEntity pageEntity) throws IOException {
+        writer.deleteDocuments(new Term(PAGE_ID, pageEntity.getId().toString()));
+    }
+
+    public void deleteAll() throws IOException {
+        writer.deleteAll();
+        commit();
+    }
+
+    public void commit() {
+        try {
+            writer.commit();
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getPageCount() throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            return searcher.getIndexReader().numDocs();
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Число страниц, содержащих каждую из лемм. Леммы, которых нет в индексе, не попадают в результат.
+     */
+    public Map<String, Integer> getDocFrequencies(Collection<String> lemmas) throws IOException {
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        IndexSearcher searcher = acquire();
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            for (String lemma : lemmas) {
+                int frequency = reader.docFreq(new Term(CONTENT, lemma));
+                if (frequency > 0) {
+                    frequencies.put(lemma, frequency);
+                }
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+        return frequencies;
+    }
+
+    /**
+     * Перебирает все леммы индекса вместе с числом содержащих их страниц.
+     */
+    public void forEachLemma(ObjIntConsumer<String> consumer) throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            Terms terms = MultiTerms.getTerms(searcher.getIndexReader(), CONTENT);
+            if (terms == null) {
+                return;
+            }
+            TermsEnum termsEnum = terms.iterator();
+            for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                consumer.accept(term.utf8ToString(), termsEnum.docFreq());
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Первые limit страниц, содержащих все леммы, с оценкой BM25 в порядке убывания,
+     * и общее число таких страниц. Пустой url означает поиск по всем сайтам.
+     * Фразы проверяются по позициям индекса, а близость всех лемм запроса добавляет
+     * к оценке нестрогую фразу с весом proximity-weight. Страницы с леммами excluded отбрасываются.
+     * Если срок истёк, сбор документов прекращается и возвращается неполный результат.
+     */
+    public TopHits search(Collection<String> lemmas, List<Phrase> phrases, Collection<String> excluded, String url,
+                          int limit, Deadline deadline) throws IOException {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String lemma : lemmas) {
+            builder.add(new TermQuery(new Term(CONTENT, lemma)), BooleanClause.Occur.MUST);
+        }
+        for (String lemma : excluded) {
+            builder.add(new TermQuery(new Term(CONTENT, lemma)), BooleanClause.Occur.MUST_NOT);
+        }
+        for (Phrase phrase : phrases) {
+            if (phrase.lemmas().size() > 1) {
+                PhraseQuery.Builder phraseBuilder = new PhraseQuery.Builder();
+                for (int i = 0; i < phrase.lemmas().size(); i++) {
+                    phraseBuilder.add(new Term(CONTENT, phrase.lemmas().get(i)), phrase.offsets().get(i));
+                }
+                builder.add(phraseBuilder.build(), BooleanClause.Occur.FILTER);
+            }
+        }
+        if (lemmas.size() > 1 && searchSettings.getProximityWeight() > 0) {
+            PhraseQuery.Builder proximity = new PhraseQuery.Builder().setSlop(PROXIMITY_SLOP);
+            int position = 0;
+            for (String lemma : lemmas) {
+                proximity.add(new Term(CONTENT, lemma), position++);
+            }
+            builder.add(new BoostQuery(proximity.build(), searchSettings.getProximityWeight()),
+                    BooleanClause.Occur.SHOULD);
+        }
+        if (!url.isEmpty()) {
+            builder.add(new TermQuery(new Term(SITE, url)), BooleanClause.Occur.FILTER);
+        }
+        BooleanQuery query = builder.build();
+        IndexSearcher searcher = acquire();
+        try {
+            int count = Math.max(1, Math.min(limit, searcher.getIndexReader().maxDoc()));
+            TopScoreDocCollector collector = TopScoreDocCollector.create(count, TOTAL_HITS_THRESHOLD);
+            DeadlineCollector deadlineCollector = new DeadlineCollector(collector, deadline);
+            searcher.search(query, deadlineCollector);
+            TopDocs topDocs = collector.topDocs();
+            boolean partial = deadlineCollector.terminated;
+            int[] pageIds = new int[topDocs.scoreDocs.length];
+            float[] scores = new float[pageIds.length];
+            for (int i = 0; i < pageIds.length; i++) {
+                ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+                pageIds[i] = Integer.parseInt(searcher.doc(scoreDoc.doc).get(PAGE_ID));
+                scores[i] = scoreDoc.score;
+            }
+            int totalHits = topDocs.totalHits.relation == TotalHits.Relation.EQUAL_TO || partial
+                    ? (int) topDocs.totalHits.value : searcher.count(query);
+            return new TopHits(pageIds, scores, totalHits, scores.length == 0 ? 0f : scores[0], partial);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private IndexSearcher acquire() throws IOException {
+        searcherManager.maybeRefresh();
+        return searcherManager.acquire();
+    }
+
+    /**
+     * Прекращает сбор документов, когда истёк срок запроса: в очередной сегмент не входит,
+     * а внутри сегмента проверяет срок каждые DEADLINE_CHECK_INTERVAL документов.
+     */
+    private static class DeadlineCollector extends FilterCollector {
+
+        private final Deadline deadline;
+        private volatile boolean terminated;
+
+        DeadlineCollector(TopScoreDocCollector collector, Deadline deadline) {
+            super(collector);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            if (terminated || deadline.expired()) {
+                terminated = true;
+                throw new CollectionTerminatedException();
+            }
+            return new FilterLeafCollector(super.getLeafCollector(context)) {
+                private int docs;
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    if (++docs % DEADLINE_CHECK_INTERVAL == 0 && deadline.expired()) {
+                        terminated = true;
+                        throw new CollectionTerminatedException();
+                    }
+                    in.collect(doc);
+                }
+            };
+        }
+    }
+}
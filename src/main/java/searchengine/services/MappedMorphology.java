@@ -0,0 +1,290 @@
+package searchengine.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.morphology.Heuristic;
+import org.apache.lucene.morphology.LetterDecoderEncoder;
+import org.apache.lucene.morphology.LuceneMorphology;
+import org.apache.lucene.morphology.Morphology;
+import org.apache.lucene.morphology.MorphologyImpl;
+import org.apache.lucene.morphology.english.EnglishLetterDecoderEncoder;
+import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
+import org.apache.lucene.morphology.russian.RussianLetterDecoderEncoder;
+import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Словарь морфологии в файле, отображённом в память. Файл один раз собирается из словаря
+ * библиотеки, а дальше только отображается: разделители, номера правил и суффиксы читаются
+ * прямо из страничного кэша ОС, общего для всех процессов, и не занимают место в куче.
+ * Поиск правила и преобразование слова повторяют {@link MorphologyImpl}, поэтому
+ * нормальные формы совпадают со стандартным словарём.
+ */
+@Slf4j
+public final class MappedMorphology implements Morphology {
+
+    private static final int MAGIC = 0x4D525048;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 32;
+
+    private final LetterDecoderEncoder decoderEncoder;
+    private final int separatorCount;
+    private final IntBuffer separatorOffsets;
+    private final IntBuffer separators;
+    private final ShortBuffer rulesId;
+    private final IntBuffer ruleOffsets;
+    private final ByteBuffer suffixLengths;
+    private final ShortBuffer formMorphInfo;
+    private final IntBuffer suffixOffsets;
+    private final CharBuffer suffixes;
+    private final String[] grammarInfo;
+
+    private MappedMorphology(MappedByteBuffer buffer, LetterDecoderEncoder decoderEncoder) throws IOException {
+        this.decoderEncoder = decoderEncoder;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Неизвестный формат файла морфологии");
+        }
+        separatorCount = buffer.getInt(8);
+        int separatorLength = buffer.getInt(12);
+        int ruleCount = buffer.getInt(16);
+        int heuristicCount = buffer.getInt(20);
+        int suffixLength = buffer.getInt(24);
+        int position = HEADER_LENGTH;
+        separatorOffsets = buffer.slice(position, (separatorCount + 1) * 4).asIntBuffer();
+        position += (separatorCount + 1) * 4;
+        separators = buffer.slice(position, separatorLength * 4).asIntBuffer();
+        position += separatorLength * 4;
+        rulesId = buffer.slice(position, separatorCount * 2).asShortBuffer();
+        position += separatorCount * 2;
+        ruleOffsets = buffer.slice(position, (ruleCount + 1) * 4).asIntBuffer();
+        position += (ruleCount + 1) * 4;
+        suffixLengths = buffer.slice(position, heuristicCount);
+        position += heuristicCount;
+        formMorphInfo = buffer.slice(position, heuristicCount * 2).asShortBuffer();
+        position += heuristicCount * 2;
+        suffixOffsets = buffer.slice(position, (heuristicCount + 1) * 4).asIntBuffer();
+        position += (heuristicCount + 1) * 4;
+        suffixes = buffer.slice(position, suffixLength * 2).asCharBuffer();
+        position += suffixLength * 2;
+        byte[] grammar = new byte[buffer.capacity() - position];
+        buffer.get(position, grammar);
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(grammar))) {
+            grammarInfo = new String[input.readInt()];
+            for (int i = 0; i < grammarInfo.length; i++) {
+                grammarInfo[i] = input.readUTF();
+            }
+        }
+    }
+
+    /**
+     * Отображает словарь языка из каталога directory, при отсутствии файла
+     * предварительно собирает его из словаря библиотеки.
+     */
+    public static MappedMorphology load(Path directory, boolean russian) throws IOException {
+        Path file = directory.resolve(russian ? "russian.morph" : "english.morph");
+        LetterDecoderEncoder decoderEncoder = russian ? new RussianLetterDecoderEncoder()
+                : new EnglishLetterDecoderEncoder();
+        if (Files.exists(file)) {
+            try {
+                return open(file, decoderEncoder);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Файл морфологии {} повреждён и будет собран заново: {}", file, e.getMessage());
+            }
+        }
+        compile(russian ? new RussianLuceneMorphology() : new EnglishLuceneMorphology(), file);
+        return open(file, decoderEncoder);
+    }
+
+    private static MappedMorphology open(Path file, LetterDecoderEncoder decoderEncoder) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedMorphology(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    decoderEncoder);
+        }
+    }
+
+    /**
+     * Записывает словарь morphology в файл file. Файл сначала пишется рядом
+     * под временным именем и затем переименовывается, чтобы другой процесс
+     * не отобразил его недописанным.
+     */
+    public static void compile(LuceneMorphology morphology, Path file) throws IOException {
+        int[][] separatorArrays = (int[][]) field(morphology, "separators");
+        short[] rulesIdArray = (short[]) field(morphology, "rulesId");
+        Heuristic[][] rules = (Heuristic[][]) field(morphology, "rules");
+        String[] grammar = (String[]) field(morphology, "grammarInfo");
+        int separatorLength = 0;
+        for (int[] separator : separatorArrays) {
+            separatorLength += separator.length;
+        }
+        int heuristicCount = 0;
+        int suffixLength = 0;
+        for (Heuristic[] rule : rules) {
+            heuristicCount += rule.length;
+            for (Heuristic heuristic : rule) {
+                suffixLength += heuristic.getActualNormalSuffix().length();
+            }
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(separatorArrays.length);
+            output.writeInt(separatorLength);
+            output.writeInt(rules.length);
+            output.writeInt(heuristicCount);
+            output.writeInt(suffixLength);
+            output.writeInt(0);
+            int offset = 0;
+            for (int[] separator : separatorArrays) {
+                output.writeInt(offset);
+                offset += separator.length;
+            }
+            output.writeInt(offset);
+            for (int[] separator : separatorArrays) {
+                for (int value : separator) {
+                    output.writeInt(value);
+                }
+            }
+            for (short ruleId : rulesIdArray) {
+                output.writeShort(ruleId);
+            }
+            offset = 0;
+            for (Heuristic[] rule : rules) {
+                output.writeInt(offset);
+                offset += rule.length;
+            }
+            output.writeInt(offset);
+            List<Heuristic> heuristics = new ArrayList<>(heuristicCount);
+            for (Heuristic[] rule : rules) {
+                heuristics.addAll(List.of(rule));
+            }
+            for (Heuristic heuristic : heuristics) {
+                output.writeByte(heuristic.getActualSuffixLength());
+            }
+            for (Heuristic heuristic : heuristics) {
+                output.writeShort(heuristic.getFormMorphInfo());
+            }
+            offset = 0;
+            for (Heuristic heuristic : heuristics) {
+                output.writeInt(offset);
+                offset += heuristic.getActualNormalSuffix().length();
+            }
+            output.writeInt(offset);
+            for (Heuristic heuristic : heuristics) {
+                output.writeChars(heuristic.getActualNormalSuffix());
+            }
+            output.writeInt(grammar.length);
+            for (String info : grammar) {
+                output.writeUTF(info);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Словарь морфологии записан в {}: {} КБ", file, Files.size(file) / 1024);
+    }
+
+    private static Object field(LuceneMorphology morphology, String name) throws IOException {
+        try {
+            Field field = MorphologyImpl.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(morphology);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Не удалось прочитать словарь морфологии: " + name, e);
+        }
+    }
+
+    @Override
+    public List<String> getNormalForms(String word) {
+        List<String> result = new ArrayList<>();
+        int rule = rulesId.get(findRuleId(decoderEncoder.encodeToArray(revert(word))));
+        boolean notSeenEmptyString = true;
+        for (int i = ruleOffsets.get(rule); i < ruleOffsets.get(rule + 1); i++) {
+            String form = transform(i, word);
+            if (!form.isEmpty()) {
+                result.add(form);
+            } else if (notSeenEmptyString) {
+                result.add(word);
+                notSeenEmptyString = false;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getMorphInfo(String word) {
+        List<String> result = new ArrayList<>();
+        int rule = rulesId.get(findRuleId(decoderEncoder.encodeToArray(revert(word))));
+        for (int i = ruleOffsets.get(rule); i < ruleOffsets.get(rule + 1); i++) {
+            result.add(transform(i, word) + "|" + grammarInfo[formMorphInfo.get(i)]);
+        }
+        return result;
+    }
+
+    private String transform(int heuristic, String word) {
+        int cut = word.length() - suffixLengths.get(heuristic);
+        if (cut < 0) {
+            return word;
+        }
+        int start = suffixOffsets.get(heuristic);
+        int end = suffixOffsets.get(heuristic + 1);
+        StringBuilder builder = new StringBuilder(cut + end - start).append(word, 0, cut);
+        for (int i = start; i < end; i++) {
+            builder.append(suffixes.get(i));
+        }
+        return builder.toString();
+    }
+
+    private int findRuleId(int[] word) {
+        int low = 0;
+        int high = separatorCount - 1;
+        int middle = 0;
+        while (low <= high) {
+            middle = (low + high) >>> 1;
+            int compared = compare(word, middle);
+            if (compared > 0) {
+                low = middle + 1;
+            } else if (compared < 0) {
+                high = middle - 1;
+            } else {
+                break;
+            }
+        }
+        return compare(word, middle) >= 0 ? middle : middle - 1;
+    }
+
+    private int compare(int[] word, int separator) {
+        int start = separatorOffsets.get(separator);
+        int length = separatorOffsets.get(separator + 1) - start;
+        int common = Math.min(word.length, length);
+        for (int i = 0; i < common; i++) {
+            int compared = Integer.compare(word[i], separators.get(start + i));
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return word.length - length;
+    }
+
+    private static String revert(String word) {
+        return new StringBuilder(word).reverse().toString();
+    }
+}
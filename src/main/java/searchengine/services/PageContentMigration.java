@@ -0,0 +1,89 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.config.StorageSettings;
+import searchengine.model.PageContentConverter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Переводит таблицу page на хранение сжатого содержимого. Тип колонки content меняется
+ * на MEDIUMBLOB при каждом запуске, так как ddl-auto: update не меняет типы существующих колонок,
+ * а сжатые байты нельзя писать в текстовую колонку. Строки, записанные без заголовка,
+ * пачками пережимаются только при storage-settings.migrate-content: true.
+ * Повторный запуск безопасен.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class PageContentMigration implements ApplicationRunner {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StorageSettings storageSettings;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        alterColumn();
+        if (storageSettings.isMigrateContent()) {
+            migrateRows();
+        }
+    }
+
+    private void alterColumn() {
+        List<String> types = jdbcTemplate.queryForList("SELECT DATA_TYPE FROM information_schema.COLUMNS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'page' AND COLUMN_NAME = 'content'", String.class);
+        if (!types.isEmpty() && !types.get(0).equalsIgnoreCase("mediumblob")) {
+            log.info("Изменение типа колонки page.content: {} -> MEDIUMBLOB", types.get(0));
+            jdbcTemplate.execute("ALTER TABLE page MODIFY content MEDIUMBLOB NOT NULL");
+        }
+    }
+
+    private void migrateRows() {
+        int lastId = 0;
+        long rows = 0;
+        long rawBytes = 0;
+        long storedBytes = 0;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        while (true) {
+            List<Object[]> batch = jdbcTemplate.query("SELECT id, content FROM page WHERE id > ? ORDER BY id LIMIT ?",
+                    (rs, i) -> new Object[]{rs.getInt(1), rs.getBytes(2)}, lastId, storageSettings.getMigrationBatchSize());
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (Object[] row : batch) {
+                lastId = (Integer) row[0];
+                byte[] data = (byte[]) row[1];
+                if (PageContentConverter.isEncoded(data)) {
+                    continue;
+                }
+                String content = new String(data, StandardCharsets.UTF_8);
+                long start = System.nanoTime();
+                byte[] encoded = PageContentConverter.encode(content, storageSettings.getCompression(),
+                        storageSettings.getCompressionLevel());
+                encodeNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                PageContentConverter.decode(encoded);
+                decodeNanos += System.nanoTime() - start;
+                jdbcTemplate.update("UPDATE page SET content = ? WHERE id = ?", encoded, lastId);
+                rows++;
+                rawBytes += data.length;
+                storedBytes += encoded.length;
+            }
+        }
+        if (rows == 0) {
+            log.info("Миграция содержимого страниц: несжатых строк не найдено");
+            return;
+        }
+        log.info("Миграция содержимого страниц ({}): строк {}, {} -> {} байт, сжатие {}x, " +
+                        "кодирование {} мкс/стр., декодирование {} мкс/стр.",
+                storageSettings.getCompression(), rows, rawBytes, storedBytes,
+                String.format("%.2f", (double) rawBytes / storedBytes),
+                encodeNanos / rows / 1000, decodeNanos / rows / 1000);
+    }
+}
@@ -12,12 +12,9 @@ import searchengine.model.PageEntity;
 import searchengine.model.SiteEntity;
 import searchengine.repository.PageRepository;
 import java.io.IOException;
-import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
@@ -33,17 +30,16 @@ public class PageSearcher extends RecursiveAction {
     private final PageRepository pageRepository;
     private final SiteEntity siteEntity;
     protected final LemmaExtractor lemmaExtractor;
+    protected final IndexingJob job;
     private volatile boolean valid;
     public static volatile boolean running = true;
 
-    public static Document getDocument(String url) throws IOException, InterruptedException {
-        Thread.sleep(200);
-        return Jsoup.connect(url).userAgent("Mozilla/5.0 (Windows; U; WindowsNT 5.1; en-US; rv1.8.1.6) " +
-                        "Gecko/20070725 Firefox/2.0.0.6").referrer("http://www.google.com")
-                .ignoreContentType(true).ignoreHttpErrors(true).get();
+    private Document getDocument(String url) throws IOException, URISyntaxException {
+        job.pause(200);
+        return Jsoup.parse(job.fetch(url).body(), url);
     }
 
-    private synchronized boolean isValid(String absUrl) {
+    synchronized boolean isValid(String absUrl) {
         String formats = ".*(yml|yaml|nc|eps|ws|sql|png|jpeg|jpg|gif|webp|bmp|svg|ico|webm|ogg|oga|p3|mav|pdf|doc|docx|xls|xlsx|ppt|pptx|txt|rtf|zip|rar|7z|tgz|js|css|xml|json|woff|woff2|ttf|otf|apk|exe|bin|JPG|JPEG)$";
         Pattern pattern = Pattern.compile(formats);
         Matcher matcher = pattern.matcher(absUrl);
@@ -57,11 +53,10 @@ public class PageSearcher extends RecursiveAction {
         return url.substring(index);
     }
 
-    protected void indexPage() throws IOException, InterruptedException, URISyntaxException {
-        Document document = getDocument(siteUrl);
-        HttpRequest request = HttpRequest.newBuilder(new URI(siteUrl)).build();
-        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    protected void indexPage() throws IOException, URISyntaxException {
+        job.pause(200);
+        HttpResponse<String> response = job.fetch(siteUrl);
+        Document document = Jsoup.parse(response.body(), siteUrl);
         String code = Integer.toString(response.statusCode());
         String content = response.body();
         String trim = trimLink(siteUrl);
@@ -70,17 +65,19 @@ public class PageSearcher extends RecursiveAction {
         pageEntity.setCode(Integer.valueOf(code));
         pageEntity.setSite(siteEntity);
         pageEntity.setContent(content);
-        List<PageEntity> pageEntityList = pageRepository.findAll().stream()
-                .filter(i -> i.getPath().equals(trim)).toList();
-        if (!pageEntityList.isEmpty()) {
-            PageEntity pageEntity1 = pageEntityList.get(0);
-            lemmaExtractor.deleteLemmaForPage(pageEntity1);
-            pageRepository.delete(pageEntity1);
+        pageEntity.setTitle(document.title());
+        pageEntity.setText(documentClear(document));
+        Optional<PageEntity> existingPage = pageRepository.findBySiteAndPath(siteEntity, trim);
+        if (existingPage.isPresent()) {
+            if (running) {
+                lemmaExtractor.reindexPage(existingPage.get(), pageEntity);
+            }
+            return;
         }
         if (running) {
             pageRepository.save(pageEntity);
             if (Integer.parseInt(code) < 400) {
-                getContent(document, pageEntity.getSite().getId(), pageEntity);
+                getContent(pageEntity);
             }
         }
     }
@@ -98,30 +95,27 @@ public class PageSearcher extends RecursiveAction {
         return builder.toString();
     }
 
-    protected void getContent(Document document, Integer siteId, PageEntity pageEntity) {
-        String text = documentClear(document);
+    protected void getContent(PageEntity pageEntity) {
         try {
-            lemmaExtractor.getAllLemmas(text, siteId, pageEntity);
+            lemmaExtractor.getAllLemmas(pageEntity.getText(), pageEntity.getSite().getId(), pageEntity);
         } catch (IOException e) {
             log.info(e.getMessage());
         }
     }
 
-    protected CopyOnWriteArraySet<String> getPages(String url) throws IOException, InterruptedException, URISyntaxException {
+    protected CopyOnWriteArraySet<String> getPages(String url) throws IOException, URISyntaxException {
         CopyOnWriteArraySet<String> linkSet = new CopyOnWriteArraySet<>();
         Document document = getDocument(url);
         Elements elements = document.select("a[href]");
         for (Element item : elements) {
             String absLink = item.attr("abs:href");
             if (isValid(absLink)) {
-                Thread.sleep(130);
+                job.pause(130);
                 LinksStorage.pages.add(absLink);
                 linkSet.add(absLink);
                 String code;
                 String content;
-                HttpRequest request = HttpRequest.newBuilder(new URI(absLink)).build();
-                HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
-                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                HttpResponse<String> response = job.fetch(absLink);
                 code = Integer.toString(response.statusCode());
                 content = response.body();
                 String trim = trimLink(absLink);
@@ -130,13 +124,16 @@ public class PageSearcher extends RecursiveAction {
                 pageEntity.setCode(Integer.valueOf(code));
                 pageEntity.setSite(siteEntity);
                 pageEntity.setContent(content);
+                Document pageDocument = Jsoup.parse(content, absLink);
+                pageEntity.setTitle(pageDocument.title());
+                pageEntity.setText(documentClear(pageDocument));
                 synchronized (pageRepository) {
                     if (running) {
                         pageRepository.save(pageEntity);
                     }
                 }
                 if (Integer.parseInt(code) < 400) {
-                    getContent(document, pageEntity.getSite().getId(), pageEntity);
+                    getContent(pageEntity);
                 }
             }
         }
@@ -155,11 +152,11 @@ public class PageSearcher extends RecursiveAction {
 
     @Override
     protected void compute() {
-        if (running) {
+        if (running && !job.isCancelled()) {
             CopyOnWriteArraySet<String> urlSet = null;
             try {
                 urlSet = getPages(siteUrl);
-            } catch (IOException | InterruptedException | URISyntaxException e) {
+            } catch (IOException | URISyntaxException e) {
                 throw new RuntimeException(e);
             }
             if (urlSet.isEmpty()) {
@@ -167,8 +164,8 @@ public class PageSearcher extends RecursiveAction {
             }
             CopyOnWriteArraySet<PageSearcher> newTaskList = new CopyOnWriteArraySet<>();
             for (String item : urlSet) {
-                PageSearcher searcher = new PageSearcher(item, pageRepository, siteEntity, lemmaExtractor);
-                if (running) {
+                PageSearcher searcher = new PageSearcher(item, pageRepository, siteEntity, lemmaExtractor, job);
+                if (running && !job.isCancelled()) {
                     searcher.fork();
                     newTaskList.add(searcher);
                 }
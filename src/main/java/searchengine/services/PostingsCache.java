@@ -0,0 +1,506 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import searchengine.config.SearchSettings;
+import searchengine.index.IndexSnapshot;
+import searchengine.index.PageSets;
+import searchengine.index.PostingList;
+import searchengine.index.SitePartition;
+import searchengine.model.IndexEntity;
+import searchengine.model.LemmaEntity;
+import searchengine.model.PageEntity;
+import searchengine.repository.IndexRepository;
+import searchengine.repository.LemmaRepository;
+import searchengine.repository.PageRepository;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Копия таблицы search_index в памяти для выполнения запросов: для каждого сайта
+ * и каждой леммы хранится отсортированный массив id страниц и параллельные массивы rate
+ * и позиций леммы на странице,
+ * для каждой страницы — её длина (сумма rate), нужная для BM25.
+ * Строится при запуске и дополняется индексатором по мере записи в базу.
+ * Между запусками сохраняется в двоичный снимок, см. {@link IndexSnapshot}. Кэш помнит
+ * поколение индекса в базе, которому он соответствует, см. {@link IndexGeneration}; если
+ * поколения изменились не только через этот экземпляр, снимок не записывается.
+ * Рядом поддерживаются сжатые наборы страниц каждой леммы и каждого сайта, см. {@link PageSets}.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class PostingsCache {
+
+    private static final int BATCH_SIZE = 50_000;
+
+    private final SearchSettings searchSettings;
+    private final IndexRepository indexRepository;
+    private final LemmaRepository lemmaRepository;
+    private final PageRepository pageRepository;
+    private final IndexGeneration indexGeneration;
+
+    private final Map<Integer, SitePartition> partitions = new ConcurrentHashMap<>();
+    private final Map<String, Integer> lemmaIds = new ConcurrentHashMap<>();
+    private final Map<String, Integer> siteIds = new ConcurrentHashMap<>();
+    private final PageSets pageSets = new PageSets();
+    private volatile int[] pageSites = new int[1024];
+    private volatile float[] pageLengths = new float[1024];
+    private final AtomicLong maxIndexId = new AtomicLong();
+    private final AtomicInteger maxPageId = new AtomicInteger();
+    private final AtomicInteger maxLemmaId = new AtomicInteger();
+    private final AtomicInteger pageCount = new AtomicInteger();
+    private final AtomicLong generation = new AtomicLong(-1);
+    private volatile boolean ready;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        if (!searchSettings.isPostingsCache() || searchSettings.getBackend() != SearchSettings.Backend.DATABASE) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long current = indexGeneration.current();
+        if (!restoreSnapshot(current)) {
+            clear();
+            loadChanges(0, 0, 0);
+            log.info("Кэш индекса построен из базы за {} мс", System.currentTimeMillis() - start);
+        } else {
+            log.info("Кэш индекса восстановлен из снимка за {} мс", System.currentTimeMillis() - start);
+        }
+        generation.set(current);
+        ready = true;
+        logFootprint();
+    }
+
+    private boolean restoreSnapshot(long currentGeneration) {
+        IndexSnapshot snapshot;
+        try {
+            snapshot = IndexSnapshot.read(Path.of(searchSettings.getSnapshotPath()));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Не удалось прочитать снимок индекса: {}", e.getMessage());
+            return false;
+        }
+        if (snapshot == null) {
+            return false;
+        }
+        if (snapshot.getGeneration() != currentGeneration) {
+            log.info("Снимок индекса устарел (поколение {}, в базе {}), кэш будет построен заново",
+                    snapshot.getGeneration(), currentGeneration);
+            return false;
+        }
+        siteIds.putAll(snapshot.getSiteIds());
+        pageSites = snapshot.getPageSites();
+        pageLengths = new float[pageSites.length];
+        for (int siteId : pageSites) {
+            if (siteId != 0) {
+                pageCount.incrementAndGet();
+                partition(siteId).addPages(1);
+            }
+        }
+        lemmaIds.putAll(snapshot.getLemmaIds());
+        snapshot.getPartitions().forEach((siteId, postings) -> partition(siteId).getPostings().putAll(postings));
+        maxIndexId.set(snapshot.getMaxIndexId());
+        maxPageId.set(snapshot.getMaxPageId());
+        maxLemmaId.set(snapshot.getMaxLemmaId());
+        removeDeletedPages(snapshot.getMaxPageId());
+        loadChanges(snapshot.getMaxIndexId(), snapshot.getMaxPageId(), snapshot.getMaxLemmaId());
+        long rows = indexRepository.count();
+        if (rows != getPostingsCount()) {
+            log.info("Снимок индекса не согласован с базой ({} записей в кэше, {} в базе), " +
+                    "кэш будет построен заново", getPostingsCount(), rows);
+            return false;
+        }
+        return true;
+    }
+
+    private void removeDeletedPages(int lastPageId) {
+        BitSet existing = new BitSet(lastPageId + 1);
+        for (Integer pageId : pageRepository.findAllPageIds()) {
+            existing.set(pageId);
+        }
+        BitSet removed = new BitSet(lastPageId + 1);
+        int[] sites = pageSites;
+        for (int pageId = 1; pageId < sites.length && pageId <= lastPageId; pageId++) {
+            if (sites[pageId] != 0 && !existing.get(pageId)) {
+                removed.set(pageId);
+                partition(sites[pageId]).addPages(-1);
+                sites[pageId] = 0;
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        pageCount.addAndGet(-removed.cardinality());
+        partitions.values().forEach(partition -> partition.removePages(removed));
+        lemmaIds.values().removeIf(lemmaId -> getDocFrequency(lemmaId, 0) == 0);
+    }
+
+    /**
+     * Догружает леммы, страницы и записи индекса с id больше заданных.
+     */
+    private void loadChanges(long lastIndexId, int lastPageId, int lastLemmaId) {
+        for (Object[] row : lemmaRepository.findLemmaNamesAfter(lastLemmaId)) {
+            putLemma((String) row[1], (Integer) row[0]);
+        }
+        for (Object[] row : pageRepository.findPageSitesAfter(lastPageId)) {
+            setPageSite((Integer) row[0], (Integer) row[1], (String) row[2]);
+        }
+        Map<Long, Buffer> buffers = new HashMap<>();
+        int lastId = (int) lastIndexId;
+        while (true) {
+            List<Object[]> rows = indexRepository.findPostingsAfter(lastId, PageRequest.of(0, BATCH_SIZE));
+            if (rows.isEmpty()) {
+                break;
+            }
+            for (Object[] row : rows) {
+                lastId = (Integer) row[0];
+                int pageId = (Integer) row[2];
+                int siteId = getPageSite(pageId);
+                if (siteId != 0) {
+                    buffers.computeIfAbsent((long) siteId << 32 | (Integer) row[1], key -> new Buffer())
+                            .add(pageId, (Float) row[3], (byte[]) row[4]);
+                }
+            }
+        }
+        maxIndexId.accumulateAndGet(lastId, Math::max);
+        buffers.forEach((key, buffer) -> partition((int) (key >>> 32)).merge(key.intValue(),
+                PostingList.of(buffer.pageIds, buffer.rates, buffer.positions, buffer.size)));
+        recountLengths();
+        pageSets.rebuild(partitions.values(), pageSites);
+    }
+
+    /**
+     * Заново вычисляет длины страниц и суммарные длины сайтов по спискам страниц.
+     */
+    private synchronized void recountLengths() {
+        float[] lengths = new float[pageSites.length];
+        for (SitePartition partition : partitions.values()) {
+            for (PostingList list : partition.getPostings().values()) {
+                for (int i = 0; i < list.size(); i++) {
+                    lengths[list.pageId(i)] += list.rate(i);
+                }
+            }
+            partition.recountLength();
+        }
+        pageLengths = lengths;
+    }
+
+    /**
+     * Сохраняет текущее состояние кэша в файл снимка.
+     */
+    @PreDestroy
+    public void writeSnapshot() {
+        if (!ready || !searchSettings.isPostingsCache()) {
+            return;
+        }
+        if (generation.get() < 0) {
+            log.info("Кэш индекса мог разойтись с базой, снимок не записывается");
+            try {
+                Files.deleteIfExists(Path.of(searchSettings.getSnapshotPath()));
+            } catch (IOException e) {
+                log.warn("Не удалось удалить снимок индекса: {}", e.getMessage());
+            }
+            return;
+        }
+        long start = System.currentTimeMillis();
+        IndexSnapshot snapshot;
+        synchronized (this) {
+            Map<Integer, Map<Integer, PostingList>> postings = new HashMap<>();
+            partitions.forEach((siteId, partition) -> postings.put(siteId, new HashMap<>(partition.getPostings())));
+            snapshot = new IndexSnapshot(generation.get(), maxIndexId.get(), maxPageId.get(), maxLemmaId.get(),
+                    getPostingsCount(), new HashMap<>(siteIds), pageSites.clone(), new HashMap<>(lemmaIds), postings);
+        }
+        try {
+            snapshot.write(Path.of(searchSettings.getSnapshotPath()));
+            log.info("Снимок индекса записан за {} мс", System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.warn("Не удалось записать снимок индекса: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Отмечает, что изменение существующих строк индекса с поколением newGeneration
+     * зафиксировано и применено к кэшу. Если предыдущее поколение кэшу не известно,
+     * например его изменил другой экземпляр, поколение кэша становится неизвестным.
+     */
+    public void advanceGeneration(long newGeneration) {
+        generation.updateAndGet(previous -> previous >= 0 && previous == newGeneration - 1 ? newGeneration : -1);
+    }
+
+    /**
+     * Очищает кэш после удаления всего индекса в базе с поколением newGeneration.
+     */
+    public void reset(long newGeneration) {
+        clear();
+        generation.set(newGeneration);
+    }
+
+    public void clear() {
+        partitions.clear();
+        pageSets.clear();
+        lemmaIds.clear();
+        siteIds.clear();
+        maxIndexId.set(0);
+        maxPageId.set(0);
+        maxLemmaId.set(0);
+        pageCount.set(0);
+        synchronized (this) {
+            pageSites = new int[1024];
+            pageLengths = new float[1024];
+        }
+    }
+
+    public void add(IndexEntity indexEntity) {
+        if (!ready) {
+            return;
+        }
+        LemmaEntity lemma = indexEntity.getLemmaEntity();
+        PageEntity page = indexEntity.getPageEntity();
+        setPageSite(page.getId(), page.getSite().getId(), page.getSite().getUrl());
+        putLemma(lemma.getLemma(), lemma.getId());
+        float previous = partition(page.getSite().getId()).add(lemma.getId(), page.getId(), indexEntity.getRate(),
+                indexEntity.getPositions());
+        addPageLength(page.getId(), indexEntity.getRate() - previous);
+        pageSets.addPosting(lemma.getId(), page.getId());
+        maxIndexId.accumulateAndGet(indexEntity.getId(), Math::max);
+    }
+
+    private void putLemma(String lemma, int lemmaId) {
+        lemmaIds.putIfAbsent(lemma, lemmaId);
+        maxLemmaId.accumulateAndGet(lemmaId, Math::max);
+    }
+
+    public void removePage(PageEntity page, Collection<LemmaEntity> lemmas) {
+        if (!ready) {
+            return;
+        }
+        SitePartition partition = partitions.get(getPageSite(page.getId()));
+        clearPageSite(page.getId());
+        if (partition == null) {
+            return;
+        }
+        for (LemmaEntity lemma : lemmas) {
+            partition.remove(lemma.getId(), page.getId());
+            pageSets.removePosting(lemma.getId(), page.getId());
+            if (getDocFrequency(lemma.getId(), 0) == 0) {
+                lemmaIds.remove(lemma.getLemma(), lemma.getId());
+            }
+        }
+    }
+
+    /**
+     * Удаляет одну запись индекса, например лемму, исчезнувшую со страницы при переиндексации.
+     */
+    public void remove(IndexEntity indexEntity) {
+        if (!ready) {
+            return;
+        }
+        int lemmaId = indexEntity.getLemmaEntity().getId();
+        int pageId = indexEntity.getPageEntity().getId();
+        SitePartition partition = partitions.get(getPageSite(pageId));
+        if (partition == null) {
+            return;
+        }
+        addPageLength(pageId, -partition.remove(lemmaId, pageId));
+        pageSets.removePosting(lemmaId, pageId);
+        if (getDocFrequency(lemmaId, 0) == 0) {
+            lemmaIds.remove(indexEntity.getLemmaEntity().getLemma(), lemmaId);
+        }
+    }
+
+    public Integer getLemmaId(String lemma) {
+        return lemmaIds.get(lemma);
+    }
+
+    private SitePartition partition(int siteId) {
+        return partitions.computeIfAbsent(siteId, id -> new SitePartition());
+    }
+
+    /**
+     * Списки страниц сайта или null, если в кэше нет ни одной его страницы.
+     */
+    public SitePartition getPartition(int siteId) {
+        return partitions.get(siteId);
+    }
+
+    public PageSets getPageSets() {
+        return pageSets;
+    }
+
+    public Collection<Integer> getPartitionSiteIds() {
+        return partitions.keySet();
+    }
+
+    /**
+     * Число страниц сайта siteId, содержащих лемму; при siteId = 0 — по всем сайтам.
+     */
+    public int getDocFrequency(int lemmaId, int siteId) {
+        if (siteId != 0) {
+            SitePartition partition = partitions.get(siteId);
+            return partition == null ? 0 : partition.getPostings(lemmaId).size();
+        }
+        int frequency = 0;
+        for (SitePartition partition : partitions.values()) {
+            frequency += partition.getPostings(lemmaId).size();
+        }
+        return frequency;
+    }
+
+    /**
+     * Средняя длина страницы сайта siteId; при siteId = 0 — по всем сайтам.
+     */
+    public float getAverageLength(int siteId) {
+        double length = 0;
+        long pages = 0;
+        for (Map.Entry<Integer, SitePartition> entry : partitions.entrySet()) {
+            if (siteId == 0 || entry.getKey() == siteId) {
+                length += entry.getValue().getTotalLength();
+                pages += entry.getValue().getPageCount();
+            }
+        }
+        return pages == 0 ? 0 : (float) (length / pages);
+    }
+
+    /**
+     * Длины страниц по id. Массив может быть заменён при росте, поэтому его
+     * следует читать один раз на запрос.
+     */
+    public float[] getPageLengths() {
+        return pageLengths;
+    }
+
+    public Integer getSiteId(String url) {
+        return siteIds.get(url);
+    }
+
+    public int getPageSite(int pageId) {
+        int[] sites = pageSites;
+        return pageId < sites.length ? sites[pageId] : 0;
+    }
+
+    private synchronized void setPageSite(int pageId, int siteId, String url) {
+        siteIds.putIfAbsent(url, siteId);
+        maxPageId.accumulateAndGet(pageId, Math::max);
+        ensureCapacity(pageId);
+        int[] sites = pageSites;
+        if (sites[pageId] == siteId) {
+            return;
+        }
+        if (sites[pageId] == 0) {
+            pageCount.incrementAndGet();
+        } else {
+            partition(sites[pageId]).addPages(-1);
+        }
+        partition(siteId).addPages(1);
+        pageSets.setPageSite(pageId, sites[pageId], siteId);
+        sites[pageId] = siteId;
+    }
+
+    private synchronized void clearPageSite(int pageId) {
+        int[] sites = pageSites;
+        if (pageId < sites.length && sites[pageId] != 0) {
+            partition(sites[pageId]).addPages(-1);
+            pageSets.setPageSite(pageId, sites[pageId], 0);
+            sites[pageId] = 0;
+            pageLengths[pageId] = 0;
+            pageCount.decrementAndGet();
+        }
+    }
+
+    private synchronized void addPageLength(int pageId, float delta) {
+        ensureCapacity(pageId);
+        pageLengths[pageId] += delta;
+    }
+
+    private void ensureCapacity(int pageId) {
+        int[] sites = pageSites;
+        if (pageId >= sites.length) {
+            int capacity = Math.max(pageId + 1, sites.length * 2);
+            pageLengths = Arrays.copyOf(pageLengths, capacity);
+            pageSites = Arrays.copyOf(sites, capacity);
+        }
+    }
+
+    /**
+     * Приблизительный объём памяти, занятый кэшем, в байтах.
+     */
+    public long getMemoryBytes() {
+        long bytes = 32 + 4L * pageSites.length + 4L * pageLengths.length + pageSets.memoryBytes();
+        for (SitePartition partition : partitions.values()) {
+            for (PostingList list : partition.getPostings().values()) {
+                bytes += list.memoryBytes() + 48;
+            }
+        }
+        for (String lemma : lemmaIds.keySet()) {
+            bytes += 40 + 2L * lemma.length() + 48;
+        }
+        return bytes;
+    }
+
+    public int getPageCount() {
+        return pageCount.get();
+    }
+
+    /**
+     * Число страниц сайта siteId; при siteId = 0 — по всем сайтам.
+     */
+    public int getPageCount(int siteId) {
+        if (siteId == 0) {
+            return getPageCount();
+        }
+        SitePartition partition = partitions.get(siteId);
+        return partition == null ? 0 : partition.getPageCount();
+    }
+
+    public long getPostingsCount() {
+        long count = 0;
+        for (SitePartition partition : partitions.values()) {
+            count += partition.getPostingsCount();
+        }
+        return count;
+    }
+
+    public void logFootprint() {
+        if (ready) {
+            log.info("Кэш индекса: лемм {}, записей {}, память ~{} КБ",
+                    lemmaIds.size(), getPostingsCount(), getMemoryBytes() / 1024);
+        }
+    }
+
+    private static class Buffer {
+        int[] pageIds = new int[4];
+        float[] rates = new float[4];
+        byte[][] positions = new byte[4][];
+        int size;
+
+        void add(int pageId, float rate, byte[] pagePositions) {
+            if (size == pageIds.length) {
+                pageIds = Arrays.copyOf(pageIds, size * 2);
+                rates = Arrays.copyOf(rates, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            pageIds[size] = pageId;
+            positions[size] = pagePositions;
+            rates[size++] = rate;
+        }
+    }
+}
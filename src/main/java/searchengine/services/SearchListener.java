@@ -0,0 +1,17 @@
+package searchengine.services;
+
+import searchengine.dto.objects.SearchDataDto;
+
+/**
+ * Получатель результатов поиска по мере их готовности: сначала число найденных страниц,
+ * затем отобранные страницы без сниппетов в порядке релевантности, затем сниппеты.
+ * Индекс — позиция страницы в выдаче, начиная с 0 для первой страницы окна.
+ */
+public interface SearchListener {
+
+    void onCount(int count);
+
+    void onPage(int index, SearchDataDto page);
+
+    void onSnippet(int index, String snippet);
+}
@@ -0,0 +1,52 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Метрики поиска: полное время запроса search.query с тегом type (single или batch),
+ * время этапов search.stage с тегом stage и число найденных страниц search.results.
+ * Этапы: lemmatize — разбор запроса и число страниц для лемм, retrieve — отбор страниц,
+ * rank — ранжирование, snippet — построение сниппетов. Lucene и полный просмотр базы для фраз
+ * отбирают и ранжируют страницы одним проходом, который целиком учитывается как retrieve.
+ * Ответы из кэша результатов этапов retrieve и rank не имеют.
+ */
+@Component
+@RequiredArgsConstructor
+public class SearchMetrics {
+
+    public static final String LEMMATIZE = "lemmatize";
+    public static final String RETRIEVE = "retrieve";
+    public static final String RANK = "rank";
+    public static final String SNIPPET = "snippet";
+
+    private final MeterRegistry registry;
+
+    public void query(String type, long nanos) {
+        Timer.builder("search.query")
+                .description("Полное время поискового запроса")
+                .tag("type", type)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void stage(String stage, long nanos) {
+        Timer.builder("search.stage")
+                .description("Время этапа поиска")
+                .tag("stage", stage)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void results(int count) {
+        DistributionSummary.builder("search.results")
+                .description("Число найденных страниц")
+                .baseUnit("pages")
+                .register(registry)
+                .record(count);
+    }
+}
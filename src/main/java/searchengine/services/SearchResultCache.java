@@ -0,0 +1,89 @@
+package searchengine.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.stereotype.Service;
+import searchengine.config.SearchSettings;
+import searchengine.dto.statistics.SearchCacheStatistics;
+import searchengine.index.TopHits;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Кэш результатов поиска. Первый уровень хранит отобранные страницы с оценками
+ * для набора лемм и сайта, второй — готовые сниппеты страниц. Каждый ключ содержит
+ * поколение индекса: индексатор увеличивает его при любой записи, и старые записи
+ * перестают находиться, постепенно вытесняясь политикой W-TinyLFU.
+ */
+@Service
+public class SearchResultCache {
+
+    private final AtomicLong generation = new AtomicLong();
+    private final Cache<QueryKey, TopHits> results;
+    private final Cache<SnippetKey, String> snippets;
+
+    public SearchResultCache(SearchSettings searchSettings) {
+        results = Caffeine.newBuilder().maximumSize(searchSettings.getResultCacheSize()).recordStats().build();
+        snippets = Caffeine.newBuilder().maximumSize(searchSettings.getSnippetCacheSize()).recordStats().build();
+    }
+
+    public record QueryKey(List<String> lemmas, String site, long generation) {
+    }
+
+    public record SnippetKey(int pageId, List<String> lemmas, long generation) {
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public void bumpGeneration() {
+        generation.incrementAndGet();
+    }
+
+    public static List<String> normalize(Collection<String> lemmas) {
+        return lemmas.stream().sorted().distinct().toList();
+    }
+
+    /**
+     * Возвращает сохранённый результат, если в нём не меньше window страниц
+     * или он уже содержит все найденные страницы, иначе вычисляет и сохраняет новый.
+     * Неполный результат, прерванный по сроку, не сохраняется.
+     */
+    public TopHits getHits(List<String> lemmas, String site, int window, Supplier<TopHits> loader) {
+        QueryKey key = new QueryKey(lemmas, site, generation.get());
+        TopHits hits = results.getIfPresent(key);
+        if (hits != null && (hits.size() >= window || hits.size() == hits.getTotalHits())) {
+            return hits;
+        }
+        hits = loader.get();
+        if (!hits.isPartial()) {
+            results.put(key, hits);
+        }
+        return hits;
+    }
+
+    public String getSnippet(int pageId, List<String> lemmas, Supplier<String> loader) {
+        return snippets.get(new SnippetKey(pageId, lemmas, generation.get()), key -> loader.get());
+    }
+
+    public List<SearchCacheStatistics> getStatistics() {
+        return List.of(toStatistics("results", results), toStatistics("snippets", snippets));
+    }
+
+    private SearchCacheStatistics toStatistics(String name, Cache<?, ?> cache) {
+        CacheStats stats = cache.stats();
+        SearchCacheStatistics statistics = new SearchCacheStatistics();
+        statistics.setName(name);
+        statistics.setSize(cache.estimatedSize());
+        statistics.setHitCount(stats.hitCount());
+        statistics.setMissCount(stats.missCount());
+        statistics.setHitRate(stats.hitRate());
+        statistics.setEvictionCount(stats.evictionCount());
+        statistics.setGeneration(generation.get());
+        return statistics;
+    }
+}
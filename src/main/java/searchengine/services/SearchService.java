@@ -1,247 +1,702 @@
 package searchengine.services;
 
-import lombok.Data;
-import org.apache.lucene.morphology.LuceneMorphology;
-import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
-import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.stereotype.Service;
+import searchengine.config.SearchSettings;
+import searchengine.dto.objects.PageSearchView;
 import searchengine.dto.objects.SearchDataDto;
-import searchengine.model.IndexEntity;
-import searchengine.model.LemmaEntity;
+import searchengine.dto.objects.SearchQueryDto;
+import searchengine.index.Bm25;
+import searchengine.index.Deadline;
+import searchengine.index.PageSets;
+import searchengine.index.Phrase;
+import searchengine.index.PositionScorer;
+import searchengine.index.PostingList;
+import searchengine.index.RankedConjunction;
+import searchengine.index.SitePartition;
+import searchengine.index.TopHits;
+import searchengine.index.TopKCollector;
+import searchengine.model.PageContentConverter;
 import searchengine.model.PageEntity;
 import searchengine.repository.IndexRepository;
 import searchengine.repository.LemmaRepository;
 import searchengine.repository.PageRepository;
-import searchengine.repository.SearchDataRepository;
 import searchengine.responses.ApplicationErrorException;
-import searchengine.responses.SearchData;
 import searchengine.responses.SearchResult;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+/**
+ * Поиск по индексу. Сервис не хранит состояния запроса и используется как обычный
+ * синглтон. Поиск по всем сайтам разбивается на задачи по сайтам, которые выполняются
+ * параллельно в собственном ограниченном пуле потоков, лучшие страницы каждого сайта
+ * затем сливаются по оценке. У каждого запроса есть срок: если он истёк, возвращаются
+ * лучшие из уже найденных страниц с признаком partial.
+ */
 @Service
-@Data
+@Slf4j
+@RequiredArgsConstructor
 public class SearchService {
 
-    private String text;
-    private String url;
-    private SearchResult searchResult;
+    private static final int PARALLEL_MIN_POSTINGS = 4096;
+    private static final int POSITIONS_BATCH_SIZE = 1000;
+    private static final TopHits PARTIAL_EMPTY = new TopHits(new int[0], new float[0], 0, 0f, true);
+
     private final LemmaRepository lemmaRepository;
     private final PageRepository pageRepository;
     private final IndexRepository indexRepository;
-    private final SearchDataRepository searchDataRepository;
-    private int snippetLength = 40;
-    private int maxWordsCount = 8;
-    private AtomicInteger tagCount = new AtomicInteger(0);
-
-    public SearchResult getResponse(String text, String url, Integer offset, Integer limit) throws IOException, InterruptedException {
-        searchDataRepository.deleteAll();
-        Map<String, Integer> lemmas = getLemmaList(text);
-        Map<PageEntity, Map<String, Float>> relevantValues = getRelevantPagesList(lemmas, url);
-        Map<PageEntity, Float> relationRelevantValues = getRelativeRelevantValues(relevantValues);
-        searchResult = new SearchResult();
+    private final LuceneIndexService luceneIndexService;
+    private final PostingsCache postingsCache;
+    private final SearchResultCache searchResultCache;
+    private final SearchSettings searchSettings;
+    private final SuggestService suggestService;
+    private final SearchMetrics searchMetrics;
+    private final PageContentConverter pageContentConverter;
+    private ThreadPoolExecutor executor;
+    private ThreadPoolExecutor batchExecutor;
+
+    private record ParsedQuery(Map<String, Integer> lemmas, List<Phrase> phrases, List<String> excluded,
+                               List<String> cacheKey) {
+    }
+
+    private record QueryHitsKey(List<String> cacheKey, String site) {
+        QueryHitsKey(ParsedQuery query, String site) {
+            this(query.cacheKey(), site);
+        }
+    }
+
+    @PostConstruct
+    public void startExecutor() {
+        int threads = searchSettings.getSearchThreads() > 0 ? searchSettings.getSearchThreads()
+                : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, searchSettings.getSearchQueueSize())), runnable -> {
+            Thread thread = new Thread(runnable, "search-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        AtomicInteger batchThreadNumber = new AtomicInteger();
+        batchExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "search-batch-" + batchThreadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        batchExecutor.allowCoreThreadTimeOut(true);
+        log.info("Пул поиска: потоков {}, очередь {}", threads, searchSettings.getSearchQueueSize());
+    }
+
+    @PreDestroy
+    public void stopExecutor() {
+        executor.shutdownNow();
+        batchExecutor.shutdownNow();
+    }
+
+    /**
+     * Срок запроса: search-timeout-ms из настроек или timeout в миллисекундах из запроса,
+     * ограниченный снизу одной миллисекундой, а сверху search-timeout-ms. Отключить срок
+     * можно только настройкой, неположительным search-timeout-ms.
+     */
+    public Deadline deadline(Long timeout) {
+        long configured = searchSettings.getSearchTimeoutMs();
+        if (timeout == null) {
+            return Deadline.after(configured);
+        }
+        long max = configured > 0 ? configured : Long.MAX_VALUE;
+        return Deadline.after(Math.max(1, Math.min(timeout, max)));
+    }
+
+    public SearchResult getResponse(String text, String url, Integer offset, Integer limit, Long timeout)
+            throws IOException {
+        SearchResult searchResult = new SearchResult();
+        searchResult.setResult(true);
+        List<SearchDataDto> pagesDto = new ArrayList<>();
+        boolean partial = search(text, url, offset, limit, deadline(timeout), new SearchListener() {
+            @Override
+            public void onCount(int count) {
+                searchResult.setCount(count);
+            }
+
+            @Override
+            public void onPage(int index, SearchDataDto page) {
+                pagesDto.add(page);
+            }
+
+            @Override
+            public void onSnippet(int index, String snippet) {
+                pagesDto.get(index).setSnippet(snippet);
+            }
+        });
+        searchResult.setData(pagesDto);
+        searchResult.setPartial(partial);
+        return searchResult;
+    }
+
+    /**
+     * Выполняет поиск и передаёт результаты получателю по мере готовности: число найденных
+     * страниц и сами страницы становятся известны сразу после ранжирования, а сниппеты,
+     * самая медленная часть, отправляются по одному. Если срок истёк до построения сниппета,
+     * вместо него отправляется пустая строка. Слова в двойных кавычках ищутся как фраза,
+     * страницы со словами, перед которыми стоит минус, исключаются.
+     *
+     * @return true, если результат неполный из-за истёкшего срока
+     */
+    public boolean search(String text, String url, int offset, int limit, Deadline deadline,
+                          SearchListener listener) throws IOException {
+        long start = System.nanoTime();
+        ParsedQuery query = parse(text, null);
+        searchMetrics.stage(SearchMetrics.LEMMATIZE, System.nanoTime() - start);
+        boolean partial = render(query, getHits(query, url, window(offset, limit), deadline), offset, limit,
+                deadline, listener);
+        searchMetrics.query("single", System.nanoTime() - start);
+        return partial;
+    }
+
+    /**
+     * Выполняет несколько запросов за один проход. Одинаковые тексты разбираются один раз,
+     * число страниц для лемм всех запросов запрашивается одним обращением к индексу,
+     * а запросы с одинаковыми леммами и сайтом ранжируются один раз для наибольшего окна.
+     * Ранжирование и построение сниппетов выполняются параллельно, результаты идут в порядке запросов.
+     * Ошибка отдельного запроса, например неизвестный сайт, не прерывает остальные.
+     */
+    public List<SearchResult> getBatchResponse(List<SearchQueryDto> queries, Long timeout) throws IOException {
+        long start = System.nanoTime();
+        Deadline deadline = deadline(timeout);
+        Map<String, ParsedQuery> parsed = parseAll(queries.stream().map(SearchQueryDto::getQuery).toList());
+        searchMetrics.stage(SearchMetrics.LEMMATIZE, System.nanoTime() - start);
+        Map<QueryHitsKey, ParsedQuery> distinct = new LinkedHashMap<>();
+        Map<QueryHitsKey, Integer> windows = new HashMap<>();
+        for (SearchQueryDto query : queries) {
+            QueryHitsKey key = new QueryHitsKey(parsed.get(query.getQuery()), siteOf(query));
+            distinct.putIfAbsent(key, parsed.get(query.getQuery()));
+            windows.merge(key, window(query.getOffset(), query.getLimit()), Math::max);
+        }
+        Map<QueryHitsKey, Future<TopHits>> hits = new HashMap<>();
+        distinct.forEach((key, query) -> hits.put(key,
+                batchExecutor.submit(() -> getHits(query, key.site(), windows.get(key), deadline))));
+        List<Future<SearchResult>> results = new ArrayList<>();
+        for (SearchQueryDto query : queries) {
+            ParsedQuery parsedQuery = parsed.get(query.getQuery());
+            Future<TopHits> queryHits = hits.get(new QueryHitsKey(parsedQuery, siteOf(query)));
+            results.add(batchExecutor.submit(() -> renderBatchResult(parsedQuery, queryHits, query, deadline)));
+        }
+        List<SearchResult> response = new ArrayList<>();
+        for (Future<SearchResult> result : results) {
+            response.add(await(result));
+        }
+        searchMetrics.query("batch", System.nanoTime() - start);
+        return response;
+    }
+
+    private SearchResult renderBatchResult(ParsedQuery query, Future<TopHits> hits, SearchQueryDto request,
+                                           Deadline deadline) throws IOException {
+        SearchResult searchResult = new SearchResult();
+        TopHits queryHits;
+        try {
+            queryHits = hits.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | CancellationException e) {
+            hits.cancel(true);
+            queryHits = PARTIAL_EMPTY;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ApplicationErrorException error) {
+                searchResult.setError(error.getMessage());
+                return searchResult;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApplicationErrorException("Поиск прерван");
+        }
         searchResult.setResult(true);
-        searchResult.setCount(relationRelevantValues.size());
-        for (Map.Entry<PageEntity, Float> entry : relationRelevantValues.entrySet()) {
-            SearchData searchData = new SearchData();
-            searchData.setSite(entry.getKey().getSite().getUrl());
-            searchData.setSiteName(entry.getKey().getSite().getName());
-            searchData.setUri(entry.getKey().getPath());
-            searchData.setTitle(getTitle(entry.getKey()));
-            String snippet = getSnippet(entry.getKey(), lemmas.keySet().stream().toList());
-            searchData.setSnippet(snippet);
-            searchData.setRelevance(entry.getValue());
-            searchDataRepository.save(searchData);
-        }
-        Pageable pageable = PageRequest.of(offset, limit);
-        Page<SearchData> pages = searchDataRepository.findAll(pageable);
-        List<SearchDataDto> pagesDto = pages.stream().map(SearchService::mapToDto).toList();
+        List<SearchDataDto> pagesDto = new ArrayList<>();
+        boolean partial = render(query, queryHits, request.getOffset(), request.getLimit(), deadline,
+                new SearchListener() {
+            @Override
+            public void onCount(int count) {
+                searchResult.setCount(count);
+            }
+
+            @Override
+            public void onPage(int index, SearchDataDto page) {
+                pagesDto.add(page);
+            }
+
+            @Override
+            public void onSnippet(int index, String snippet) {
+                pagesDto.get(index).setSnippet(snippet);
+            }
+        });
         searchResult.setData(pagesDto);
+        searchResult.setPartial(partial);
         return searchResult;
     }
 
-    public static SearchDataDto mapToDto(SearchData searchData) {
+    private static String siteOf(SearchQueryDto query) {
+        return query.getSite() == null ? "" : query.getSite();
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApplicationErrorException("Поиск прерван");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Разбирает запрос: исключаемые леммы, фразы, леммы с числом страниц и ключ кэша.
+     * Если frequencies не null, число страниц для лемм берётся из него.
+     */
+    private ParsedQuery parse(String text, Map<String, Integer> frequencies) throws IOException {
+        List<String> excluded = LemmaExtractor.excludedLemmas(text);
+        String included = LemmaExtractor.withoutExclusions(text);
+        List<Phrase> phrases = LemmaExtractor.phrases(included);
+        Map<String, Integer> lemmas = getLemmaList(included, phrases, frequencies);
+        lemmas.keySet().removeAll(excluded);
+        List<String> cacheKey = new ArrayList<>(SearchResultCache.normalize(lemmas.keySet()));
+        phrases.forEach(phrase -> cacheKey.add(phrase.key()));
+        SearchResultCache.normalize(excluded).forEach(lemma -> cacheKey.add("-" + lemma));
+        return new ParsedQuery(lemmas, phrases, excluded, cacheKey);
+    }
+
+    /**
+     * Разбирает тексты запросов, каждый различный текст один раз, с одним общим
+     * обращением к индексу за числом страниц для лемм всех запросов.
+     */
+    private Map<String, ParsedQuery> parseAll(List<String> texts) throws IOException {
+        Set<String> distinct = new LinkedHashSet<>(texts);
+        Set<String> allLemmas = new HashSet<>();
+        for (String text : distinct) {
+            allLemmas.addAll(LemmaExtractor.lemmaExtract(LemmaExtractor.withoutExclusions(text)).keySet());
+        }
+        Map<String, Integer> frequencies = getDocFrequencies(new ArrayList<>(allLemmas));
+        Map<String, ParsedQuery> parsed = new HashMap<>();
+        for (String text : distinct) {
+            parsed.put(text, parse(text, frequencies));
+        }
+        return parsed;
+    }
+
+    /**
+     * Число лучших страниц, которые нужно отобрать для выдачи с offset по offset + limit,
+     * без переполнения int.
+     */
+    private static int window(int offset, int limit) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+    }
+
+    private TopHits getHits(ParsedQuery query, String url, int window, Deadline deadline) {
+        boolean phrasesFound = query.phrases().stream()
+                .allMatch(phrase -> query.lemmas().keySet().containsAll(phrase.lemmas()));
+        return query.lemmas().isEmpty() || !phrasesFound ? TopHits.EMPTY
+                : searchResultCache.getHits(query.cacheKey(), url, window,
+                        () -> findHits(query.lemmas(), query.phrases(), query.excluded(), url, window, deadline));
+    }
+
+    private boolean render(ParsedQuery query, TopHits hits, int offset, int limit, Deadline deadline,
+                           SearchListener listener) {
+        List<String> cacheKey = query.cacheKey();
+        listener.onCount(hits.getTotalHits());
+        searchMetrics.results(hits.getTotalHits());
+        int end = Math.min(hits.size(), window(offset, limit));
+        List<Integer> pageIds = new ArrayList<>();
+        for (int i = offset; i < end; i++) {
+            pageIds.add(hits.pageId(i));
+        }
+        Map<Integer, PageSearchView> pages = pageRepository.findSearchViews(pageIds).stream()
+                .collect(Collectors.toMap(PageSearchView::getId, p -> p));
+        List<Integer> foundIds = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (int i = offset; i < end; i++) {
+            PageSearchView page = pages.get(hits.pageId(i));
+            if (page != null) {
+                float relevance = hits.getMaxScore() == 0 ? 1 : hits.score(i) / hits.getMaxScore();
+                String[] titleAndText = page.getText() == null ? backfillText(page.getId())
+                        : new String[]{page.getTitle(), page.getText()};
+                listener.onPage(foundIds.size(), mapToDto(page, titleAndText[0], null, relevance));
+                foundIds.add(page.getId());
+                texts.add(titleAndText[1]);
+            }
+        }
+        List<String> lemmasList = query.lemmas().keySet().stream().toList();
+        boolean partial = hits.isPartial();
+        long start = System.nanoTime();
+        for (int i = 0; i < foundIds.size(); i++) {
+            if (deadline.expired()) {
+                listener.onSnippet(i, "");
+                partial = true;
+                continue;
+            }
+            String pageText = texts.get(i);
+            listener.onSnippet(i, searchResultCache.getSnippet(foundIds.get(i), cacheKey,
+                    () -> getSnippet(pageText, lemmasList)));
+        }
+        if (!foundIds.isEmpty()) {
+            searchMetrics.stage(SearchMetrics.SNIPPET, System.nanoTime() - start);
+        }
+        return partial;
+    }
+
+    private TopHits findHits(Map<String, Integer> lemmas, List<Phrase> phrases, List<String> excluded, String url,
+                             int window, Deadline deadline) {
+        if (luceneIndexService.isEnabled()) {
+            long start = System.nanoTime();
+            try {
+                return luceneIndexService.search(lemmas.keySet(), phrases, excluded, url, window, deadline);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                searchMetrics.stage(SearchMetrics.RETRIEVE, System.nanoTime() - start);
+            }
+        }
+        PositionScorer scorer = PositionScorer.of(new ArrayList<>(lemmas.keySet()), phrases,
+                searchSettings.getProximityWeight());
+        return postingsCache.isReady() ? getCachedHits(lemmas, excluded, scorer, url, window, deadline)
+                : getDatabaseHits(lemmas, excluded, scorer, url, window, deadline);
+    }
+
+    /**
+     * Для страниц, проиндексированных до появления колонок title и visible_text,
+     * извлекает заголовок и видимый текст из сохранённого HTML и записывает в базу только
+     * эти две колонки и только если текст ещё пуст, чтобы не затереть параллельную переиндексацию.
+     */
+    private String[] backfillText(int pageId) {
+        Optional<PageEntity> pageEntity = pageRepository.findById(pageId);
+        if (pageEntity.isEmpty()) {
+            return new String[]{"", ""};
+        }
+        Document document = Jsoup.parse(pageEntity.get().getContent());
+        String title = document.title();
+        String text = PageSearcher.documentClear(document);
+        pageRepository.backfillText(pageId, title, pageContentConverter.convertToDatabaseColumn(text));
+        return new String[]{title, text};
+    }
+
+    public SearchDataDto mapToDto(PageSearchView page, String title, String snippet, float relevance) {
         SearchDataDto searchDataDto = new SearchDataDto();
-        searchDataDto.setSite(searchData.getSite());
-        searchDataDto.setSiteName(searchData.getSite());
-        searchDataDto.setUri(searchData.getUri());
-        searchDataDto.setTitle(searchData.getTitle());
-        searchDataDto.setSnippet(searchData.getSnippet());
-        searchDataDto.setRelevance(searchData.getRelevance());
+        searchDataDto.setSite(page.getSiteUrl());
+        searchDataDto.setSiteName(page.getSiteName());
+        searchDataDto.setUri(page.getPath());
+        searchDataDto.setTitle(title);
+        searchDataDto.setSnippet(snippet);
+        searchDataDto.setRelevance(relevance);
         return searchDataDto;
     }
 
-    public Map<String, Integer> getLemmaList(String text) throws IOException {
+    /**
+     * Леммы запроса с числом страниц для каждой, от редких к частым. Леммы фраз
+     * не отбрасываются как слишком частые: без них фразу нельзя проверить.
+     * Если frequencies не null, число страниц берётся из него без обращения к индексу.
+     */
+    public Map<String, Integer> getLemmaList(String text, List<Phrase> phrases, Map<String, Integer> frequencies)
+            throws IOException {
         Map<String, Integer> lemmas = LemmaExtractor.lemmaExtract(text);
         List<String> lemmasOnly = lemmas.keySet().stream().toList();
         Map<String, Integer> newLemmasList = new HashMap<>();
-        List<LemmaEntity> lemmaEntities = lemmaRepository.findAll();
-        for (String lemma : lemmasOnly) {
-            for (LemmaEntity lemmaEntity : lemmaEntities) {
-                if (lemma.equals(lemmaEntity.getLemma())) {
-                    Integer count = lemmaEntity.getFrequency();
-                    newLemmasList.put(lemma, count);
+        if (frequencies == null) {
+            newLemmasList.putAll(getDocFrequencies(lemmasOnly));
+        } else {
+            lemmasOnly.stream().filter(frequencies::containsKey)
+                    .forEach(lemma -> newLemmasList.put(lemma, frequencies.get(lemma)));
+        }
+        if (searchSettings.isFuzzy()) {
+            List<String> corrections = new ArrayList<>();
+            for (String lemma : lemmasOnly) {
+                String correction = newLemmasList.containsKey(lemma) ? null : suggestService.correct(lemma);
+                if (correction != null) {
+                    corrections.add(correction);
                 }
             }
+            if (!corrections.isEmpty()) {
+                newLemmasList.putAll(getDocFrequencies(corrections));
+            }
         }
-        return newLemmasList.entrySet().stream().sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1,
-                        LinkedHashMap::new));
-    }
-
-    public String getTitle(PageEntity pageEntity) {
-        String document = pageEntity.getContent();
-        String startTag = "<title>";
-        String endTag = "</title>";
-        int start = document.indexOf(startTag) + 7;
-        int end = document.indexOf(endTag);
-        return document.substring(start, end);
-    }
-
-    public String[] tagCreator(String content, List<String> lemmas) throws IOException {
-        LuceneMorphology russianMorphology = new RussianLuceneMorphology();
-        LuceneMorphology englishMorphology = new EnglishLuceneMorphology();
-        String[] pageContent = content.split("\\s+");
-        for (int i = 0; i < pageContent.length; i++) {
-            for (String lemma : lemmas) {
-                if (pageContent[i].length() > 1 && pageContent[i].toLowerCase().charAt(0) == lemma.toLowerCase().charAt(0)
-                && pageContent[i].toLowerCase().charAt(1) == lemma.toLowerCase().charAt(1)) {
-                    String word = pageContent[i].replaceAll("[^\\p{L}]", "");
-                    if (LemmaExtractor.isCyrillic(word.toLowerCase())) {
-                        List<String> baseWords = russianMorphology.getNormalForms(word.toLowerCase());
-                        if (baseWords.contains(lemma.toLowerCase()) && word.toLowerCase().startsWith(lemma.toLowerCase()) ||
-                                (baseWords.contains(lemma.toLowerCase()) || word.toLowerCase().startsWith(lemma.toLowerCase()))) {
-                            word = "<b>".concat(word).concat("</b>");
-                            pageContent[i] = word;
-                            tagCount.incrementAndGet();
-                        }
-                    } else if (LemmaExtractor.isLatin(word.toLowerCase())) {
-                        List<String> baseWords = englishMorphology.getNormalForms(word.toLowerCase());
-                        if (baseWords.contains(lemma.toLowerCase()) && word.toLowerCase().startsWith(lemma.toLowerCase()) ||
-                                (baseWords.contains(lemma.toLowerCase()) || word.toLowerCase().startsWith(lemma.toLowerCase()))) {
-                            word = "<b>".concat(word).concat("</b>");
-                            pageContent[i] = word;
-                            tagCount.incrementAndGet();
-                        }
-                    }
+        Map<String, Integer> pruned = pruneFrequentLemmas(newLemmasList, getTotalPages());
+        for (Phrase phrase : phrases) {
+            for (String lemma : phrase.lemmas()) {
+                if (newLemmasList.containsKey(lemma)) {
+                    pruned.putIfAbsent(lemma, newLemmasList.get(lemma));
                 }
             }
         }
-        return pageContent;
+        return pruned;
     }
 
-    public String getSnippet(PageEntity pageEntity, List<String> lemmas)
-            throws IOException, InterruptedException {
-        String absUrl = pageEntity.getSite().getUrl().concat(pageEntity.getPath());
-        Document document = PageSearcher.getDocument(absUrl);
-        String content = PageSearcher.documentClear(document);
-        String[] pageContent = tagCreator(content, lemmas);
-        StringBuilder builder = new StringBuilder();
-        if (tagCount.get() == 0) {
-            return builder.toString().strip();
-        } else {
-            String[] snippet;
-            if (pageContent.length <= maxWordsCount) {
-                snippet = pageContent;
-                builder.append(String.join(" ", snippet));
-            } else {
-                if (tagCount.get() > maxWordsCount) {
-                    tagCount.set(maxWordsCount);
-                }
-                int partSize = (snippetLength - tagCount.get()) / tagCount.get();
-                for (int i = 0; i < pageContent.length; i++) {
-                    if (pageContent[i].startsWith("<b>")) {
-                        builder.append(pageContent[i]).append(" ");
-                        if ((pageContent.length - 1) - (i + 1) > partSize) {
-                            for (int a = 1; a <= partSize; a++) {
-                                builder.append(pageContent[i + a]).append(" ");
-                            }
-                            i = i + partSize;
-                        } else {
-                            for (int a = 1; a < (pageContent.length - 1) - (i + 1); a++) {
-                                builder.append(pageContent[i + a]).append(" ");
-                            }
-                        }
-                    }
+    /**
+     * Число страниц с каждой из лемм. Леммы, которых нет в индексе, не попадают в результат.
+     */
+    private Map<String, Integer> getDocFrequencies(List<String> lemmasOnly) throws IOException {
+        Map<String, Integer> newLemmasList = new HashMap<>();
+        if (luceneIndexService.isEnabled()) {
+            newLemmasList.putAll(luceneIndexService.getDocFrequencies(lemmasOnly));
+        } else if (postingsCache.isReady()) {
+            for (String lemma : lemmasOnly) {
+                Integer lemmaId = postingsCache.getLemmaId(lemma);
+                if (lemmaId != null) {
+                    newLemmasList.put(lemma, postingsCache.getDocFrequency(lemmaId, 0));
                 }
             }
+        } else if (!lemmasOnly.isEmpty()) {
+            for (Object[] row : lemmaRepository.findLemmaFrequencies(lemmasOnly)) {
+                newLemmasList.put((String) row[0], ((Number) row[1]).intValue());
+            }
         }
-        return builder.toString().strip();
+        return newLemmasList;
     }
 
-    public Map<PageEntity, Float> getRelativeRelevantValues(Map<PageEntity, Map<String, Float>> pages) {
-        Map<PageEntity, Float> relevantValues = new HashMap<>();
-        for (Map.Entry<PageEntity, Map<String, Float>> entry : pages.entrySet()) {
-            PageEntity page = entry.getKey();
-            Map<String, Float> lemmasRate = entry.getValue();
-            Float absRelevance = lemmasRate.values().stream().reduce(0f, Float::sum);
-            relevantValues.put(page, absRelevance);
-        }
-        Float maxVal = relevantValues.values().stream().max(Float::compareTo).orElse(0f);
-        Map<PageEntity, Float> relationRelevantValues = new HashMap<>();
-        for (Map.Entry<PageEntity, Float> item : relevantValues.entrySet()) {
-            Float relationRelevance = item.getValue() / (maxVal == 0 ? item.getValue() : maxVal);
-            relationRelevantValues.put(item.getKey(), relationRelevance);
+    private long getTotalPages() throws IOException {
+        if (luceneIndexService.isEnabled()) {
+            return luceneIndexService.getPageCount();
         }
-        return relationRelevantValues.entrySet().stream().sorted(Map.Entry.<PageEntity, Float>comparingByValue().reversed())
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1,
-                        LinkedHashMap::new));
+        return postingsCache.isReady() ? postingsCache.getPageCount() : pageRepository.count();
+    }
+
+    /**
+     * Упорядочивает леммы от редких к частым и отбрасывает те, что встречаются на доле
+     * страниц больше search-settings.max-lemma-page-share. Самая редкая лемма остаётся всегда.
+     */
+    public Map<String, Integer> pruneFrequentLemmas(Map<String, Integer> frequencies, long totalPages) {
+        double limit = searchSettings.getMaxLemmaPageShare() * totalPages;
+        Map<String, Integer> lemmas = new LinkedHashMap<>();
+        frequencies.entrySet().stream().sorted(Map.Entry.comparingByValue())
+                .filter(entry -> lemmas.isEmpty() || entry.getValue() <= limit)
+                .forEach(entry -> lemmas.put(entry.getKey(), entry.getValue()));
+        return lemmas;
+    }
+
+    public String getSnippet(String content, List<String> lemmas) {
+        return Highlighter.snippet(content, lemmas);
     }
 
-    public Map<PageEntity, Map<String, Float>> getRelevantPagesList(Map<String, Integer> lemmas, String url) {
-        Map<PageEntity, Map<String, Float>> relevantValuesList = new HashMap<>();
-        List<IndexEntity> indexEntities = indexRepository.findAll();
+    /**
+     * Страницы, содержащие все леммы запроса, по данным кэша индекса, с оценкой BM25.
+     * Документные частоты и средняя длина страницы берутся по сайту из url,
+     * а при поиске по всем сайтам — по всему индексу, чтобы оценки разных сайтов были сравнимы.
+     * Найденные страницы сначала определяются пересечением сжатых наборов страниц лемм и сайта
+     * за вычетом исключённых лемм: пустой результат возвращается сразу, а без фраз мощность
+     * пересечения даёт точное число найденных страниц, и при ранжировании можно пропускать блоки.
+     */
+    public TopHits getCachedHits(Map<String, Integer> lemmas, List<String> excluded, PositionScorer scorer,
+                                 String url, int window, Deadline deadline) {
+        long start = System.nanoTime();
+        int siteId = 0;
         if (!url.isEmpty()) {
-            indexEntities = indexEntities.stream()
-                    .filter(i -> i.getPageEntity().getSite().getUrl().equals(url)).toList();
-            if (indexEntities.isEmpty()) {
+            Integer id = postingsCache.getSiteId(url);
+            if (id == null) {
                 throw new ApplicationErrorException("Указанная страница не найдена");
             }
+            siteId = id;
         }
+        Bm25 bm25 = new Bm25(searchSettings.getBm25K1(), searchSettings.getBm25B());
+        long docCount = postingsCache.getPageCount(siteId);
+        int[] lemmaIds = new int[lemmas.size()];
+        float[] idf = new float[lemmas.size()];
+        int index = 0;
+        for (String lemma : lemmas.keySet()) {
+            Integer lemmaId = postingsCache.getLemmaId(lemma);
+            lemmaIds[index] = lemmaId == null ? -1 : lemmaId;
+            idf[index++] = lemmaId == null ? 0 : bm25.idf(postingsCache.getDocFrequency(lemmaId, siteId), docCount);
+        }
+        if (Arrays.stream(lemmaIds).anyMatch(lemmaId -> lemmaId == -1)) {
+            return TopHits.EMPTY;
+        }
+        PageSets pageSets = postingsCache.getPageSets();
+        List<Integer> excludedIds = excluded.stream().map(postingsCache::getLemmaId).filter(Objects::nonNull).toList();
+        RoaringBitmap matches = pageSets.match(Arrays.stream(lemmaIds).boxed().toList(), excludedIds, siteId);
+        searchMetrics.stage(SearchMetrics.RETRIEVE, System.nanoTime() - start);
+        start = System.nanoTime();
+        if (matches.isEmpty()) {
+            return TopHits.EMPTY;
+        }
+        RoaringBitmap excludedPages = pageSets.union(excludedIds);
+        boolean countByBitmap = !scorer.hasPhrases();
+        float averageLength = postingsCache.getAverageLength(siteId);
+        float[] pageLengths = postingsCache.getPageLengths();
+        boolean exactCount = searchSettings.isExactTotalHits() && !countByBitmap;
+        List<PostingList[]> partitions = new ArrayList<>();
+        long work = 0;
+        Collection<Integer> siteIds = siteId == 0 ? postingsCache.getPartitionSiteIds() : List.of(siteId);
+        for (Integer partitionSiteId : siteIds) {
+            SitePartition partition = postingsCache.getPartition(partitionSiteId);
+            if (partition == null) {
+                continue;
+            }
+            PostingList[] lists = new PostingList[lemmaIds.length];
+            int shortest = Integer.MAX_VALUE;
+            for (int i = 0; i < lemmaIds.length; i++) {
+                lists[i] = lemmaIds[i] == -1 ? PostingList.EMPTY : partition.getPostings(lemmaIds[i]);
+                shortest = Math.min(shortest, lists[i].size());
+            }
+            if (shortest > 0) {
+                partitions.add(lists);
+                work += shortest;
+            }
+        }
+        if (partitions.size() < 2 || work < PARALLEL_MIN_POSTINGS) {
+            TopKCollector collector = new TopKCollector(window);
+            for (PostingList[] lists : partitions) {
+                if (deadline.expired()) {
+                    collector.markPartial();
+                    break;
+                }
+                RankedConjunction.collect(lists, idf, pageLengths, averageLength, bm25, exactCount, scorer,
+                        excludedPages, deadline, collector);
+            }
+            TopHits hits = collector.topHits();
+            searchMetrics.stage(SearchMetrics.RANK, System.nanoTime() - start);
+            return countByBitmap ? hits.withTotalHits(matches.getCardinality()) : hits;
+        }
+        List<Future<TopHits>> futures = new ArrayList<>();
+        for (PostingList[] lists : partitions) {
+            futures.add(executor.submit(() -> {
+                TopKCollector collector = new TopKCollector(window);
+                RankedConjunction.collect(lists, idf, pageLengths, averageLength, bm25, exactCount, scorer,
+                        excludedPages, deadline, collector);
+                return collector.topHits();
+            }));
+        }
+        List<TopHits> results = new ArrayList<>();
+        boolean partial = false;
+        try {
+            for (Future<TopHits> future : futures) {
+                try {
+                    results.add(future.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS));
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                    partial = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ApplicationErrorException("Поиск прерван");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        TopHits hits = TopHits.merge(results, window, partial);
+        searchMetrics.stage(SearchMetrics.RANK, System.nanoTime() - start);
+        return countByBitmap ? hits.withTotalHits(matches.getCardinality()) : hits;
+    }
 
-        List<PageEntity> allRelevantPages = new ArrayList<>();
-        List<String> lemmasList = lemmas.keySet().stream().toList();
-        for (String entry : lemmasList) {
-            List<PageEntity> oneStepPages = new ArrayList<>(indexEntities.stream().filter(i ->
-                    i.getLemmaEntity().getLemma().equals(entry)).map(IndexEntity::getPageEntity).toList());
-            allRelevantPages.addAll(oneStepPages);
-            oneStepPages.clear();
+    /**
+     * Поиск без индекса в памяти. Пересечение лемм, исключения, сумма rank, сортировка и отбор
+     * первых window страниц выполняются одним запросом к базе, которая возвращает только id и оценки.
+     * Поправка за близость пересчитывается по позициям лемм для этих страниц. Для фраз тот же запрос
+     * без ограничения числа строк отбирает страницы со всеми леммами, а фразы проверяются
+     * по позициям лемм этих страниц, которые загружаются пачками; содержимое страниц не читается.
+     */
+    public TopHits getDatabaseHits(Map<String, Integer> lemmas, List<String> excluded, PositionScorer scorer,
+                                   String url, int window, Deadline deadline) {
+        long start = System.nanoTime();
+        List<String> terms = new ArrayList<>(lemmas.keySet());
+        terms.addAll(excluded);
+        if (scorer.hasPhrases()) {
+            List<Object[]> candidates = indexRepository.findMatchingPages(lemmas.keySet(), terms, lemmas.size(), url);
+            searchMetrics.stage(SearchMetrics.RETRIEVE, System.nanoTime() - start);
+            start = System.nanoTime();
+            TopHits hits = filterPhrases(candidates, lemmas.keySet(), scorer, window, deadline);
+            searchMetrics.stage(SearchMetrics.RANK, System.nanoTime() - start);
+            return hits;
         }
+        List<Object[]> rows = indexRepository.findTopPages(lemmas.keySet(), terms, lemmas.size(), url, window);
+        searchMetrics.stage(SearchMetrics.RETRIEVE, System.nanoTime() - start);
+        start = System.nanoTime();
+        if (rows.isEmpty()) {
+            return TopHits.EMPTY;
+        }
+        int total = ((Number) rows.get(0)[2]).intValue();
+        Map<Integer, Map<String, byte[]>> positions = scorer.isEnabled() ? loadPositions(rows, lemmas.keySet())
+                : Map.of();
+        TopKCollector collector = new TopKCollector(window);
+        List<String> lemmaList = new ArrayList<>(lemmas.keySet());
+        byte[][] termPositions = new byte[lemmaList.size()][];
+        for (Object[] row : rows) {
+            int pageId = ((Number) row[0]).intValue();
+            float score = ((Number) row[1]).floatValue();
+            if (scorer.isEnabled()) {
+                score = scorer.score(pagePositions(positions, pageId, lemmaList, termPositions), score);
+            }
+            collector.collect(pageId, score);
+        }
+        searchMetrics.stage(SearchMetrics.RANK, System.nanoTime() - start);
+        return collector.topHits().withTotalHits(total);
+    }
 
-        HashSet<PageEntity> relevantPages = new HashSet<>();
-        if (!allRelevantPages.isEmpty()) {
-            for (PageEntity pageEntity : allRelevantPages) {
-                if (Collections.frequency(allRelevantPages, pageEntity) == lemmasList.size()) {
-                    relevantPages.add(pageEntity);
-                }
+    /**
+     * Оставляет из страниц-кандидатов те, где есть все фразы запроса, и уточняет их оценку.
+     * Если срок истёк, проверка прекращается и результат помечается неполным.
+     */
+    private TopHits filterPhrases(List<Object[]> candidates, Collection<String> lemmas, PositionScorer scorer,
+                                  int window, Deadline deadline) {
+        TopKCollector collector = new TopKCollector(window);
+        List<String> lemmaList = new ArrayList<>(lemmas);
+        byte[][] termPositions = new byte[lemmaList.size()][];
+        for (int from = 0; from < candidates.size(); from += POSITIONS_BATCH_SIZE) {
+            if (deadline.expired()) {
+                collector.markPartial();
+                break;
             }
-            for (PageEntity page : relevantPages) {
-                Map<String, Float> lemmasRate = new HashMap<>();
-                for (String lemma : lemmasList) {
-                    List<IndexEntity> indexEntityList = indexRepository.findAll().stream()
-                            .filter(i -> i.getPageEntity().equals(page))
-                            .filter(i -> i.getLemmaEntity().getLemma().equals(lemma)).toList();
-                    if (!indexEntityList.isEmpty()) {
-                        float indexRate = indexEntityList.get(0).getRate();
-                        if (lemmasRate.isEmpty() || !lemmasRate.containsKey(lemma)) {
-                            lemmasRate.put(lemma, indexRate);
-                        } else {
-                            float count = lemmasRate.get(lemma);
-                            count += indexRate;
-                            lemmasRate.put(lemma, count);
-                        }
-                    }
+            List<Object[]> batch = candidates.subList(from, Math.min(candidates.size(), from + POSITIONS_BATCH_SIZE));
+            Map<Integer, Map<String, byte[]>> positions = loadPositions(batch, lemmas);
+            for (Object[] row : batch) {
+                int pageId = ((Number) row[0]).intValue();
+                float score = scorer.score(pagePositions(positions, pageId, lemmaList, termPositions),
+                        ((Number) row[1]).floatValue());
+                if (score >= 0) {
+                    collector.collect(pageId, score);
                 }
-                relevantValuesList.put(page, lemmasRate);
             }
         }
-        return relevantValuesList;
+        return collector.topHits();
+    }
+
+    /**
+     * Позиции лемм lemmas на страницах из rows, где id страницы стоит в первой колонке.
+     */
+    private Map<Integer, Map<String, byte[]>> loadPositions(List<Object[]> rows, Collection<String> lemmas) {
+        List<Integer> pageIds = rows.stream().map(row -> ((Number) row[0]).intValue()).toList();
+        Map<Integer, Map<String, byte[]>> positions = new HashMap<>();
+        for (Object[] row : indexRepository.findPositions(pageIds, lemmas)) {
+            positions.computeIfAbsent((Integer) row[0], id -> new HashMap<>()).put((String) row[1], (byte[]) row[2]);
+        }
+        return positions;
+    }
+
+    private static byte[][] pagePositions(Map<Integer, Map<String, byte[]>> positions, int pageId,
+                                          List<String> lemmaList, byte[][] termPositions) {
+        Map<String, byte[]> pagePositions = positions.getOrDefault(pageId, Map.of());
+        for (int i = 0; i < lemmaList.size(); i++) {
+            termPositions[i] = pagePositions.get(lemmaList.get(i));
+        }
+        return termPositions;
     }
 }
 
@@ -13,7 +13,7 @@ import searchengine.dto.statistics.TotalStatistics;
 import searchengine.model.SiteEntity;
 import searchengine.repository.LemmaRepository;
 import searchengine.repository.PageRepository;
-import java.sql.Timestamp;
+import searchengine.repository.SiteRepository;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -26,6 +26,7 @@ public class StatisticsServiceImpl implements StatisticsService {
     private final SitesList sites;
     private final PageRepository pageRepository;
     private final LemmaRepository lemmaRepository;
+    private final SiteRepository siteRepository;
     Random random = new Random();
 
     @Override
@@ -47,7 +48,9 @@ public class StatisticsServiceImpl implements StatisticsService {
             SiteDto siteDto = new SiteDto();
             siteDto.setUrl(site.getUrl());
             siteDto.setName(site.getName());
-            SiteEntity siteEntity = IndexingService.mapToEntity(siteDto);
+            SiteEntity siteEntity = siteRepository.findAll().stream()
+                    .filter(s -> s.getUrl().equals(site.getUrl())).findFirst()
+                    .orElseGet(() -> IndexingService.mapToEntity(siteDto));
             DetailedStatisticsItem item = new DetailedStatisticsItem();
             item.setName(site.getName());
             item.setUrl(site.getUrl());
@@ -59,8 +62,7 @@ public class StatisticsServiceImpl implements StatisticsService {
             item.setLemmas(lemmas);
             item.setStatus(IndexingService.indexingStatus.name());
             item.setError(IndexingService.error);
-            long time = Timestamp.from(siteEntity.getStatusTime()).getTime();
-            item.setStatusTime(System.currentTimeMillis() - time);
+            item.setStatusTime(siteEntity.getStatusTime().toEpochMilli());
             total.setPages(total.getPages() + pages);
             total.setLemmas(total.getLemmas() + lemmas);
             detailed.add(item);
@@ -0,0 +1,121 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.util.BytesRef;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import searchengine.dto.objects.SuggestionDto;
+import searchengine.index.LemmaDictionary;
+import searchengine.index.SuggestDictionary;
+import searchengine.repository.LemmaRepository;
+import searchengine.repository.PageRepository;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Подсказки при вводе запроса по леммам и заголовкам страниц и исправление опечаток
+ * в леммах запроса. Словари целиком лежат в памяти и пересобираются после каждой
+ * индексации, запросы обслуживаются без обращения к базе.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class SuggestService {
+
+    public static final int MAX_LIMIT = 50;
+
+    private final LemmaRepository lemmaRepository;
+    private final PageRepository pageRepository;
+    private final LuceneIndexService luceneIndexService;
+    private volatile SuggestDictionary dictionary;
+    private volatile LemmaDictionary lemmaDictionary = LemmaDictionary.EMPTY;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        TreeMap<BytesRef, Map.Entry<String, Long>> entries = new TreeMap<>();
+        TreeMap<String, Integer> lemmas = new TreeMap<>();
+        try {
+            if (luceneIndexService.isEnabled()) {
+                luceneIndexService.forEachLemma((lemma, frequency) -> lemmas.put(lemma, frequency));
+            } else {
+                for (Object[] row : lemmaRepository.findLemmaFrequencies()) {
+                    lemmas.put((String) row[0], ((Number) row[1]).intValue());
+                }
+            }
+            lemmas.forEach((lemma, frequency) -> put(entries, lemma, lemma, frequency));
+            for (Object[] row : pageRepository.findTitleCounts()) {
+                String title = ((String) row[0]).strip().replaceAll("\\s+", " ");
+                put(entries, normalize(title), title, ((Number) row[1]).longValue());
+            }
+            dictionary = SuggestDictionary.build(entries);
+            lemmaDictionary = LemmaDictionary.build(lemmas);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Не удалось построить словарь подсказок: {}", e.getMessage());
+            return;
+        }
+        log.info("Словари подсказок построены за {} мс: строк {}, лемм {}, память ~{} КБ",
+                System.currentTimeMillis() - start, dictionary.size(), lemmaDictionary.size(),
+                (dictionary.ramBytesUsed() + lemmaDictionary.ramBytesUsed()) / 1024);
+    }
+
+    /**
+     * Ближайшая лемма словаря для леммы, которой в индексе нет, или null.
+     * Слова до трёх букв не исправляются, до шести допускается одна правка, дальше две.
+     */
+    public String correct(String lemma) {
+        int length = lemma.codePointCount(0, lemma.length());
+        if (length < 3) {
+            return null;
+        }
+        return lemmaDictionary.closest(lemma, length < 6 ? 1 : 2);
+    }
+
+    private static void put(TreeMap<BytesRef, Map.Entry<String, Long>> entries, String key, String text, long weight) {
+        if (key.isEmpty()) {
+            return;
+        }
+        entries.merge(new BytesRef(key), new AbstractMap.SimpleImmutableEntry<>(text, weight),
+                (current, added) -> added.getValue() > current.getValue() ? added : current);
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Продолжения введённой строки целиком (заголовки, леммы) и её последнего слова,
+     * в порядке убывания веса.
+     */
+    public List<SuggestionDto> suggest(String query, int limit) throws IOException {
+        SuggestDictionary current = dictionary;
+        String prefix = normalize(query).stripLeading();
+        if (current == null || prefix.isEmpty()) {
+            return List.of();
+        }
+        limit = Math.min(limit, MAX_LIMIT);
+        Map<String, SuggestionDto> suggestions = new LinkedHashMap<>();
+        for (SuggestionDto suggestion : current.lookup(prefix, limit)) {
+            suggestions.putIfAbsent(suggestion.getText(), suggestion);
+        }
+        int space = prefix.lastIndexOf(' ');
+        if (space > 0 && space < prefix.length() - 1) {
+            String head = prefix.substring(0, space + 1);
+            for (SuggestionDto suggestion : current.lookup(prefix.substring(space + 1), limit)) {
+                String text = head + suggestion.getText();
+                suggestions.putIfAbsent(text, new SuggestionDto(text, suggestion.getWeight()));
+            }
+        }
+        List<SuggestionDto> result = new ArrayList<>(suggestions.values());
+        result.sort(Comparator.comparingLong(SuggestionDto::getWeight).reversed());
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+}
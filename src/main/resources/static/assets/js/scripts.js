@@ -1457,6 +1457,114 @@ var API = function(){
             }
         });
     }
+
+    function showError($this, error) {
+        if ($this.next('.API-error').length) {
+            $this.next('.API-error').text(error);
+        } else {
+            $this.after('<div class="API-error">' + error + '</div>');
+        }
+    }
+
+    function streamSearch(data, $this) {
+        if (!window.fetch || !window.TextDecoder || !window.ReadableStream) {
+            sendData(send.search.address, send.search.type, data, send.search.action, $this);
+            return;
+        }
+        var $searchResults = $('.SearchResult'),
+            $content = $searchResults.find('.SearchResult-content'),
+            params = new URLSearchParams(),
+            blocks = [],
+            count = 0;
+        Object.keys(data).forEach(function(key){
+            params.append(key, data[key]);
+        });
+        if ($this.next('.API-error').length) {
+            $this.next('.API-error').remove();
+        }
+        if (data.offset === 0) {
+            $content.empty();
+        }
+        function handle(event) {
+            switch (event.type) {
+                case 'count':
+                    count = event.count;
+                    $searchResults.find('.SearchResult-amount').text(count);
+                    $searchResults.addClass('SearchResult_ACTIVE');
+                    break;
+                case 'page':
+                    var page = event.page;
+                    var $block = $('<div class="SearchResult-block">' +
+                        '<a href="' + page.site + page.uri +'" target="_blank" class="SearchResult-siteTitle">' +
+                            (!data.siteName ? page.siteName + ' - ': '') +
+                            page.title +
+                        '</a>' +
+                        '<div class="SearchResult-description"></div>' +
+                    '</div>');
+                    blocks[event.index] = $block;
+                    $content.append($block);
+                    break;
+                case 'snippet':
+                    if (blocks[event.index]) {
+                        blocks[event.index].find('.SearchResult-description').html(event.snippet);
+                    }
+                    break;
+                case 'done':
+                    if (count > data.offset + blocks.length) {
+                        $('.SearchResult-footer').removeClass('SearchResult-footer_hide')
+                        $('.SearchResult-footer button[data-send="search"]')
+                            .data('sendoffset', data.offset + blocks.length)
+                            .data('searchquery', data.query)
+                            .data('searchsite', data.site)
+                            .data('sendlimit', data.limit);
+                        $('.SearchResult-remain').text('(' + (count - data.offset - blocks.length) + ')')
+                    } else {
+                        $('.SearchResult-footer').addClass('SearchResult-footer_hide')
+                    }
+                    if (event.partial) {
+                        showError($this, 'Поиск не успел завершиться, показаны лучшие из найденных результатов');
+                    }
+                    break;
+                case 'error':
+                    showError($this, event.error);
+                    break;
+            }
+        }
+        fetch(backendApiUrl + send.search.address + '/stream?' + params.toString()).then(function(response){
+            if (!response.ok) {
+                return response.json().then(function(result){
+                    showError($this, result.error || 'Ошибка поиска');
+                }, function(){
+                    showError($this, 'Ошибка поиска: ' + response.status);
+                });
+            }
+            var reader = response.body.getReader(),
+                decoder = new TextDecoder(),
+                buffer = '';
+            function read() {
+                return reader.read().then(function(chunk){
+                    if (chunk.done) {
+                        if (buffer.trim()) {
+                            handle(JSON.parse(buffer));
+                        }
+                        return;
+                    }
+                    buffer += decoder.decode(chunk.value, {stream: true});
+                    var lines = buffer.split('\n');
+                    buffer = lines.pop();
+                    lines.forEach(function(line){
+                        if (line.trim()) {
+                            handle(JSON.parse(line));
+                        }
+                    });
+                    return read();
+                });
+            }
+            return read();
+        }).catch(function(){
+            alert('Ошибка поиска');
+        });
+    }
     
     var send = {
         startIndexing:{
@@ -1764,6 +1872,10 @@ var API = function(){
                             break;
         
                     }
+                    if ($this.data('send') === 'search') {
+                        streamSearch(data, $this);
+                        return;
+                    }
                     sendData(
                         send[$this.data('send')].address,
                         send[$this.data('send')].type,